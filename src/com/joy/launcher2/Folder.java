@@ -60,6 +60,7 @@ import android.widget.TextView;
 
 import com.joy.launcher2.R;
 import com.joy.launcher2.FolderInfo.FolderListener;
+import com.joy.launcher2.cache.MemoryGovernor;
 import com.joy.launcher2.download.DownloadInfo;
 import com.joy.launcher2.preference.PreferencesProvider;
 
@@ -68,7 +69,7 @@ import com.joy.launcher2.preference.PreferencesProvider;
  */
 public class Folder extends LinearLayout implements DragSource, View.OnClickListener,
         View.OnLongClickListener, DropTarget, FolderListener, TextView.OnEditorActionListener,
-        View.OnFocusChangeListener {
+        View.OnFocusChangeListener, MemoryGovernor.Trimmable {
     private static final String TAG = "joy.launcher2.Folder";
 
     protected DragController mDragController;
@@ -183,6 +184,41 @@ public class Folder extends LinearLayout implements DragSource, View.OnClickList
         // name is complete, we have something to focus on, thus hiding the cursor and giving
         // reliable behvior when clicking the text field (since it will always gain focus on click).
         setFocusableInTouchMode(true);
+        MemoryGovernor.getInstance().register(this);
+    }
+
+    @Override
+    public String getName() {
+        return TAG;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return MemoryGovernor.getBitmapSize(mUpBitmap) + MemoryGovernor.getBitmapSize(mDownBitmap)
+                + MemoryGovernor.getBitmapSize(mFolderBitmap);
+    }
+
+    /**
+     * The screenshots are retaken every time the folder opens; once removeImages() has
+     * detached them they are only kept around until the next open.
+     */
+    @Override
+    public void trimMemory(int level) {
+        if (mUpImage != null && mUpImage.getParent() != null) {
+            return;
+        }
+        if (mUpBitmap != null) {
+            mUpBitmap.recycle();
+            mUpBitmap = null;
+        }
+        if (mDownBitmap != null) {
+            mDownBitmap.recycle();
+            mDownBitmap = null;
+        }
+        if (mFolderBitmap != null) {
+            mFolderBitmap.recycle();
+            mFolderBitmap = null;
+        }
     }
 
     @Override
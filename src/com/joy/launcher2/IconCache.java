@@ -33,10 +33,13 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
 
+import com.joy.launcher2.cache.CacheStats;
+import com.joy.launcher2.cache.MemoryGovernor;
+
 /**
  * Cache of application icons.  Icons can be made from any thread.
  */
-public class IconCache {
+public class IconCache implements MemoryGovernor.Trimmable, CacheStats.Provider {
     @SuppressWarnings("unused")
     private static final String TAG = "joy.launcher2.IconCache";
 
@@ -58,6 +61,7 @@ public class IconCache {
     private final HashMap<ComponentName, CacheEntry> mCache =
             new HashMap<ComponentName, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
     private int mIconDpi;
+    private final CacheStats.Counter mStats = new CacheStats.Counter();
 
     public IconCache(LauncherApplication context) {
         ActivityManager activityManager =
@@ -69,6 +73,8 @@ public class IconCache {
 
         // need to set mIconDpi before getting default icon
         mDefaultIcon = makeDefaultIcon();
+        MemoryGovernor.getInstance().register(this);
+        CacheStats.register(this);
     }
 
     public Drawable getFullResDefaultActivityIcon() {
@@ -141,7 +147,9 @@ public class IconCache {
      */
     public void remove(ComponentName componentName) {
         synchronized (mCache) {
-            mCache.remove(componentName);
+            if (mCache.remove(componentName) != null) {
+                mStats.evict(1);
+            }
         }
     }
 
@@ -150,10 +158,49 @@ public class IconCache {
      */
     public void flush() {
         synchronized (mCache) {
+            mStats.evict(mCache.size());
             mCache.clear();
         }
     }
 
+    @Override
+    public String getName() {
+        return TAG;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        long size = 0;
+        synchronized (mCache) {
+            for (CacheEntry e : mCache.values()) {
+                if (e.icon != mDefaultIcon) {
+                    size += MemoryGovernor.getBitmapSize(e.icon);
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Icons on the workspace keep their own bitmaps, and entries are reloaded on demand,
+     * so the cache is only emptied once the launcher is about to be killed.
+     */
+    @Override
+    public void trimMemory(int level) {
+        if (MemoryGovernor.getKeepFraction(level) <= 0) {
+            flush();
+        }
+    }
+
+    @Override
+    public CacheStats getStats() {
+        int count;
+        synchronized (mCache) {
+            count = mCache.size();
+        }
+        return mStats.snapshot(TAG, count, getSizeInBytes(), 0);
+    }
+
     /**
      * Fill in "application" with the icon and label for "info."
      */
@@ -204,6 +251,7 @@ public class IconCache {
         String packageName = componentName.getPackageName();
         String activityName = componentName.getClassName();
         if (entry == null) {
+            mStats.miss();
             entry = new CacheEntry();
 
             mCache.put(componentName, entry);
@@ -276,6 +324,8 @@ public class IconCache {
 
             /*entry.icon = Utilities.createIconBitmap(
                     getFullResIcon(info), mContext, componentName.getPackageName());*/
+        } else {
+            mStats.hit();
         }
         //end
         return entry;
@@ -132,6 +132,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.joy.launcher2.DropTarget.DragObject;
+import com.joy.launcher2.cache.CacheStats;
 import com.joy.launcher2.download.DownLoadDBHelper;
 import com.joy.launcher2.download.DownloadInfo;
 import com.joy.launcher2.download.DownloadManager;
@@ -141,6 +142,7 @@ import com.joy.launcher2.install.InstallAPK.InstallApkListener;
 import com.joy.launcher2.joyfolder.JoyFolderIcon;
 import com.joy.launcher2.joyfolder.JoyIconView;
 import com.joy.launcher2.network.handler.BuiltInHandler;
+import com.joy.launcher2.network.util.NetworkStats;
 import com.joy.launcher2.preference.Preferences;
 import com.joy.launcher2.preference.PreferencesProvider;
 import com.joy.launcher2.util.Constants;
@@ -5177,10 +5179,12 @@ public final class Launcher extends Activity
         Log.d(TAG, "mSavedInstanceState=" + mSavedState);
         Log.d(TAG, "sFolders.size=" + sFolders.size());
         mModel.dumpState();
+        CacheStats.dumpState();
 
         if (mAppsCustomizeContent != null) {
             mAppsCustomizeContent.dumpState();
         }
+        NetworkStats.getInstance().dumpState();
         Log.d(TAG, "END launcher2 dump state");
     }
 
@@ -5196,6 +5200,10 @@ public final class Launcher extends Activity
             }
         } catch (Exception e){
         }
+        writer.println(" ");
+        NetworkStats.getInstance().dump(writer);
+        writer.println(" ");
+        CacheStats.dump(writer);
     }
 
     public static void dumpDebugLogsToConsole() {
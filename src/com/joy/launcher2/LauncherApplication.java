@@ -33,6 +33,8 @@ import android.database.ContentObserver;
 import android.os.Handler;
 
 import com.joy.launcher2.cache.BitmapCache;
+import com.joy.launcher2.cache.MemoryGovernor;
+import com.joy.launcher2.network.impl.PrefetchScheduler;
 import com.joy.launcher2.network.impl.Service;
 import com.joy.launcher2.preference.PreferencesProvider;
 import com.joy.launcher2.push.PushUtils;
@@ -127,6 +129,8 @@ public class LauncherApplication extends Application {
 			e.printStackTrace();
 		}
 		
+		PrefetchScheduler.getInstance().start(this);
+		
 		mSystemInfo = SystemInfo.getInstance();
 		
 		SharedPreferences sp = getSharedPreferences(PreferencesProvider.PREFERENCES_KEY, 0);
@@ -150,6 +154,22 @@ public class LauncherApplication extends Application {
 		
     }
 
+    /**
+     * All registered caches (icons, network images, wallpapers, widget previews) shrink
+     * together according to the trim level.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        MemoryGovernor.getInstance().trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        MemoryGovernor.getInstance().trimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
     /**
      * There's no guarantee that this function is ever called.
      */
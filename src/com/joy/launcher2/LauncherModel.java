@@ -529,8 +529,9 @@ public class LauncherModel extends BroadcastReceiver {
      * @return
      */
     public static String getDataBase(Context context){
-
-    	StringBuffer buffer = new StringBuffer();
+    	// 逐条编码后拼接，不再保留未编码的完整字符串（url编码按字符进行，结果与整体编码相同）
+    	StringBuilder out = new StringBuilder();
+    	StringBuilder buffer = new StringBuilder();
         final ContentResolver cr = context.getContentResolver();
         final Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI, null, null, null, null);
         
@@ -589,6 +590,7 @@ public class LauncherModel extends BroadcastReceiver {
                     	className = intent.getComponent().getClassName();
 					}
 				}
+                buffer.setLength(0);
                 String split = "_split_";
                 String equal = "_equal_";
                 String and = "_and_";
@@ -612,6 +614,7 @@ public class LauncherModel extends BroadcastReceiver {
                 .append(split+"iconPackage"+equal+iconPackage)
                 .append(split+"iconResource"+equal+iconResource)
                 .append(and);
+                out.append(Util.encodeContentForUrl(buffer.toString()));
             }
         } catch (Exception e) {
         	e.printStackTrace();
@@ -619,8 +622,7 @@ public class LauncherModel extends BroadcastReceiver {
         finally {
             c.close();
         }
-        String infoString = Util.encodeContentForUrl(buffer.toString());
-        return infoString;
+        return out.toString();
     }
     /**
      * 从备份的xml里获取数据，保存到数据库（用于恢复）
@@ -27,10 +27,13 @@ import android.content.pm.ComponentInfo;
 import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
 
+import com.joy.launcher2.cache.CacheStats;
+import com.joy.launcher2.cache.MemoryGovernor;
+
 /**
  * Simple cache mechanism for PagedView outlines.
  */
-public class PagedViewIconCache {
+public class PagedViewIconCache implements MemoryGovernor.Trimmable, CacheStats.Provider {
     public static class Key {
         public enum Type {
             ApplicationInfoKey,
@@ -76,21 +79,60 @@ public class PagedViewIconCache {
         }
     }
 
+    // Filled on the UI thread but read by dump and MemoryGovernor from other threads,
+    // so every access goes through a synchronized method
     private final HashMap<Key, Bitmap> mIconOutlineCache = new HashMap<Key, Bitmap>();
+    private final CacheStats.Counter mStats = new CacheStats.Counter();
+
+    public PagedViewIconCache() {
+        MemoryGovernor.getInstance().register(this);
+        CacheStats.register(this);
+    }
+
+    @Override
+    public synchronized CacheStats getStats() {
+        return mStats.snapshot(getName(), mIconOutlineCache.size(), getSizeInBytes(), 0);
+    }
+
+    @Override
+    public String getName() {
+        return "PagedViewIconCache";
+    }
 
-    public void clear() {
+    @Override
+    public synchronized long getSizeInBytes() {
+        long size = 0;
+        for (Bitmap b : mIconOutlineCache.values()) {
+            size += MemoryGovernor.getBitmapSize(b);
+        }
+        return size;
+    }
+
+    /**
+     * Outlines are only drawn while dragging and are rebuilt on demand.
+     */
+    @Override
+    public void trimMemory(int level) {
+        if (MemoryGovernor.getKeepFraction(level) <= 0.5f) {
+            clear();
+        }
+    }
+
+    public synchronized void clear() {
         for (Key key : mIconOutlineCache.keySet()) {
             mIconOutlineCache.get(key).recycle();
         }
+        mStats.evict(mIconOutlineCache.size());
         mIconOutlineCache.clear();
     }
-    private void retainAll(HashSet<Key> keysToKeep, Key.Type t) {
+    private synchronized void retainAll(HashSet<Key> keysToKeep, Key.Type t) {
         HashSet<Key> keysToRemove = new HashSet<Key>(mIconOutlineCache.keySet());
         keysToRemove.removeAll(keysToKeep);
         for (Key key : keysToRemove) {
             if (key.isKeyType(t)) {
                 mIconOutlineCache.get(key).recycle();
                 mIconOutlineCache.remove(key);
+                mStats.evict(1);
             }
         }
     }
@@ -118,16 +160,23 @@ public class PagedViewIconCache {
         }
         retainAll(keysSet, Key.Type.AppWidgetProviderInfoKey);
     }
-    public void addOutline(Key key, Bitmap b) {
+    public synchronized void addOutline(Key key, Bitmap b) {
         mIconOutlineCache.put(key, b);
     }
-    public void removeOutline(Key key) {
+    public synchronized void removeOutline(Key key) {
         if (mIconOutlineCache.containsKey(key)) {
             mIconOutlineCache.get(key).recycle();
             mIconOutlineCache.remove(key);
+            mStats.evict(1);
         }
     }
-    public Bitmap getOutline(Key key) {
-        return mIconOutlineCache.get(key);
+    public synchronized Bitmap getOutline(Key key) {
+        Bitmap b = mIconOutlineCache.get(key);
+        if (b != null) {
+            mStats.hit();
+        } else {
+            mStats.miss();
+        }
+        return b;
     }
 }
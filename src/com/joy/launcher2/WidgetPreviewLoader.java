@@ -8,6 +8,7 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.graphics.Bitmap;
@@ -25,6 +26,8 @@ import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.util.Log;
 
+import com.joy.launcher2.cache.CacheStats;
+import com.joy.launcher2.cache.MemoryGovernor;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -33,6 +36,8 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 abstract class SoftReferenceThreadLocal<T> {
     private ThreadLocal<SoftReference<T>> mThreadLocal;
@@ -99,7 +104,7 @@ class BitmapFactoryOptionsCache extends SoftReferenceThreadLocal<BitmapFactory.O
     }
 }
 
-public class WidgetPreviewLoader {
+public class WidgetPreviewLoader implements MemoryGovernor.Trimmable, CacheStats.Provider {
     static final String TAG = "WidgetPreviewLoader";
 
     private int mPreviewBitmapWidth;
@@ -132,6 +137,7 @@ public class WidgetPreviewLoader {
 
     private HashMap<String, WeakReference<Bitmap>> mLoadedPreviews;
     private ArrayList<SoftReference<Bitmap>> mUnusedBitmaps;
+    private final CacheStats.Counter mStats = new CacheStats.Counter();
     private static HashSet<String> sInvalidPackages;
 
     static {
@@ -147,6 +153,69 @@ public class WidgetPreviewLoader {
         mDb = app.getWidgetPreviewCacheDb();
         mLoadedPreviews = new HashMap<String, WeakReference<Bitmap>>();
         mUnusedBitmaps = new ArrayList<SoftReference<Bitmap>>();
+        MemoryGovernor.getInstance().register(this);
+        CacheStats.register(this);
+    }
+
+    /**
+     * Previews held in memory; the database has its own stats in {@link CacheDb}.
+     */
+    @Override
+    public CacheStats getStats() {
+        int count;
+        synchronized (mLoadedPreviews) {
+            count = mLoadedPreviews.size();
+        }
+        return mStats.snapshot(TAG, count, getSizeInBytes(), 0);
+    }
+
+    @Override
+    public String getName() {
+        return TAG;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        long size = 0;
+        synchronized (mLoadedPreviews) {
+            for (WeakReference<Bitmap> ref : mLoadedPreviews.values()) {
+                size += MemoryGovernor.getBitmapSize(ref.get());
+            }
+        }
+        synchronized (mUnusedBitmaps) {
+            for (SoftReference<Bitmap> ref : mUnusedBitmaps) {
+                size += MemoryGovernor.getBitmapSize(ref.get());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * The unused bitmaps are not on screen and can be recycled right away; loaded previews
+     * are still displayed and are released by AppsCustomizeTabHost.onTrimMemory.
+     */
+    @Override
+    public void trimMemory(int level) {
+        synchronized (mUnusedBitmaps) {
+            int recycled = 0;
+            for (SoftReference<Bitmap> ref : mUnusedBitmaps) {
+                Bitmap b = ref.get();
+                if (b != null) {
+                    b.recycle();
+                    recycled++;
+                }
+            }
+            mUnusedBitmaps.clear();
+            mStats.evict(recycled);
+        }
+        synchronized (mLoadedPreviews) {
+            Iterator<WeakReference<Bitmap>> it = mLoadedPreviews.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().get() == null) {
+                    it.remove();
+                }
+            }
+        }
     }
 
     public void setPreviewSize(int previewWidth, int previewHeight,
@@ -171,10 +240,12 @@ public class WidgetPreviewLoader {
             synchronized(mLoadedPreviews) {
                 // check if it exists in our existing cache
                 if (mLoadedPreviews.containsKey(name) && mLoadedPreviews.get(name).get() != null) {
+                    mStats.hit();
                     return mLoadedPreviews.get(name).get();
                 }
             }
         }
+        mStats.miss();
 
         Bitmap unusedBitmap = null;
         synchronized(mUnusedBitmaps) {
@@ -253,7 +324,7 @@ public class WidgetPreviewLoader {
         }
     }
 
-    static class CacheDb extends SQLiteOpenHelper {
+    static class CacheDb extends SQLiteOpenHelper implements CacheStats.Provider {
         final static int DB_VERSION = 2;
         final static String DB_NAME = "widgetpreviews.db";
         final static String TABLE_NAME = "shortcut_and_widget_previews";
@@ -261,11 +332,28 @@ public class WidgetPreviewLoader {
         final static String COLUMN_SIZE = "size";
         final static String COLUMN_PREVIEW_BITMAP = "preview_bitmap";
         Context mContext;
+        final CacheStats.Counter mStats = new CacheStats.Counter();
+        // Row count, counted once when the database is opened and then kept up to date on
+        // insert/delete so that dump never has to open or query the database
+        final AtomicInteger mRowCount = new AtomicInteger();
 
         public CacheDb(Context context) {
             super(context, new File(context.getCacheDir(), DB_NAME).getPath(), null, DB_VERSION);
             // Store the context for later use
             mContext = context;
+            CacheStats.register(this);
+        }
+
+        @Override
+        public CacheStats getStats() {
+            long size = new File(mContext.getCacheDir(), DB_NAME).length();
+            return mStats.snapshot(DB_NAME, mRowCount.get(), size, 0);
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            // Runs on the loader thread that first uses the database
+            mRowCount.set((int) DatabaseUtils.queryNumEntries(db, TABLE_NAME));
         }
 
         @Override
@@ -330,7 +418,9 @@ public class WidgetPreviewLoader {
         preview.compress(Bitmap.CompressFormat.PNG, 100, stream);
         values.put(CacheDb.COLUMN_PREVIEW_BITMAP, stream.toByteArray());
         values.put(CacheDb.COLUMN_SIZE, mSize);
-        db.insert(CacheDb.TABLE_NAME, null, values);
+        if (db.insert(CacheDb.TABLE_NAME, null, values) != -1) {
+            mDb.mRowCount.incrementAndGet();
+        }
     }
 
     public static void removeFromDb(final CacheDb cacheDb, final String packageName) {
@@ -340,13 +430,15 @@ public class WidgetPreviewLoader {
         new AsyncTask<Void, Void, Void>() {
             public Void doInBackground(Void ... args) {
                 SQLiteDatabase db = cacheDb.getWritableDatabase();
-                db.delete(CacheDb.TABLE_NAME,
+                int deleted = db.delete(CacheDb.TABLE_NAME,
                         CacheDb.COLUMN_NAME + " LIKE ? OR " +
                         CacheDb.COLUMN_NAME + " LIKE ?", // SELECT query
                         new String[] {
                             WIDGET_PREFIX + packageName + "/%",
                             SHORTCUT_PREFIX + packageName + "/%"} // args to SELECT query
                             );
+                cacheDb.mStats.evict(deleted);
+                cacheDb.mRowCount.addAndGet(-deleted);
                 synchronized(sInvalidPackages) {
                     sInvalidPackages.remove(packageName);
                 }
@@ -370,6 +462,7 @@ public class WidgetPreviewLoader {
                 null,
                 null);
         if (result.getCount() > 0) {
+            mDb.mStats.hit();
             result.moveToFirst();
             byte[] blob = result.getBlob(0);
             result.close();
@@ -379,6 +472,7 @@ public class WidgetPreviewLoader {
             Bitmap out = BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
             return out;
         } else {
+            mDb.mStats.miss();
             result.close();
             return null;
         }
@@ -1,48 +1,67 @@
 package com.joy.launcher2.cache;
 
 import java.io.FileInputStream;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
-import java.util.Hashtable;
-import java.util.Map;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 
 import com.joy.launcher2.LauncherApplication;
+import com.joy.launcher2.network.impl.NetworkExecutor;
 import com.joy.launcher2.network.impl.Service;
 import com.joy.launcher2.network.impl.Service.CallBack;
 import com.joy.launcher2.util.Constants;
 import com.joy.launcher2.util.Util;
 
 /**
- * 图片缓存处理
+ * 图片缓存处理：内存中按字节数限制大小的LRU缓存（最大为可用内存的1/{@link #MEMORY_FRACTION}），
+ * 超出时淘汰最久未使用的图片
  * @author wanghao
  *
  */
-public class BitmapCache {
+public class BitmapCache implements MemoryGovernor.Trimmable, CacheStats.Provider {
 	private static final String TAG = "BitmapCache";
 	private static final Boolean DEBUG = false;
+	// 缓存占可用内存的比例（1/n）
+	private static final int MEMORY_FRACTION = 16;
 	private static BitmapCache cache;
-	private Map<String, MySoftRef> hashRefs;
-	private ReferenceQueue<Bitmap> queue;
+	private LruCache<String, Bitmap> mLruCache;
+	private EvictionListener mEvictionListener;
+	// trimMemory删除的条目数，LruCache.evictionCount不包括这部分
+	private int mTrimmedCount;
 	private Service mService;
-	private class MySoftRef extends SoftReference<Bitmap> {
-		public String key;
-		public MySoftRef(Bitmap bmp, ReferenceQueue<Bitmap> queue,String key) {
-			super(bmp, queue);
-			this.key = key;
-		}
+
+	/**
+	 * 图片被淘汰（或被替换、清除）时回调。图片可能仍在界面上显示，不要在这里recycle
+	 */
+	public interface EvictionListener {
+		void onEvicted(String key, Bitmap bitmap, boolean evicted);
 	}
 	
 	private BitmapCache() {
-		hashRefs = new Hashtable<String, MySoftRef>();
-		queue = new ReferenceQueue<Bitmap>();
+		int maxSize = (int) (Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+		mLruCache = new LruCache<String, Bitmap>(maxSize) {
+			@Override
+			protected int sizeOf(String key, Bitmap value) {
+				return value.getRowBytes() * value.getHeight();
+			}
+
+			@Override
+			protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+				if (DEBUG && evicted) Log.i(TAG, "---entryRemoved 淘汰=>" + key);
+				EvictionListener listener = mEvictionListener;
+				if (listener != null) {
+					listener.onEvicted(key, oldValue, evicted);
+				}
+			}
+		};
+		MemoryGovernor.getInstance().register(this);
+		CacheStats.register(this);
 		try {
 			mService = Service.getInstance();
 		} catch (Exception e) {
@@ -59,9 +78,36 @@ public class BitmapCache {
 	}
 
 	private void addCacheBitmap(String key,Bitmap bmp) {
-		cleanCache();
-		MySoftRef ref = new MySoftRef(bmp, queue,key);
-		hashRefs.put(key, ref);
+		if (key != null && bmp != null) {
+			mLruCache.put(key, bmp);
+		}
+	}
+
+	public void setEvictionListener(EvictionListener listener) {
+		mEvictionListener = listener;
+	}
+
+	public int getHitCount() {
+		return mLruCache.hitCount();
+	}
+
+	public int getMissCount() {
+		return mLruCache.missCount();
+	}
+
+	public int getEvictionCount() {
+		return mLruCache.evictionCount() + mTrimmedCount;
+	}
+
+	/**
+	 * 当前占用的字节数
+	 */
+	public int size() {
+		return mLruCache.size();
+	}
+
+	public int maxSize() {
+		return mLruCache.maxSize();
 	}
 	
 	private void setBitmap(View view,Bitmap bm){
@@ -81,18 +127,28 @@ public class BitmapCache {
 	/**
 	 * //从网络下载图片
 	 * @param key
-	 * @param imageDownLoadCallback
+	 * @param imageDownLoadCallback 在后台线程回调
+	 * @return 可取消的任务句柄
 	 */
-	public void getBitmap(final String key,final ImageDownLoadCallback imageDownLoadCallback,final ImageOption... option) {
+	public NetworkExecutor.Task getBitmap(final String key,final ImageDownLoadCallback imageDownLoadCallback,final ImageOption... option) {
 		
-		new Thread() {
-			public void run() {
+		return mService.GotoNetwork(new CallBack() {
+			@Override
+			public void onPreExecute() {
+			}
+			
+			@Override
+			public void onPostExecute() {
+			}
+			
+			@Override
+			public void doInBackground() {
 				Bitmap bm = mService.getBitmapByUrl(key,option);
 				if(imageDownLoadCallback!=null){
 					imageDownLoadCallback.imageDownLoaded(bm);
 				}
 			}
-		}.start();
+		});
 	}
 	/**
 	 * 获取图片 (缓存=>本地资源=>SD卡=>网络=>null)
@@ -100,21 +156,21 @@ public class BitmapCache {
 	 * @param view
 	 * @param imageDownLoadCallback
 	 * @param option
+	 * @return 需要联网时返回可取消的任务句柄，否则返回null
 	 */
-	public void getBitmap(final String key, final View view,final ImageDownLoadCallback imageDownLoadCallback,String suffix,final ImageOption... option) {
+	public NetworkExecutor.Task getBitmap(final String key, final View view,final ImageDownLoadCallback imageDownLoadCallback,String suffix,final ImageOption... option) {
 		
 		Bitmap bm = null;
-		//从队列中取
-		if (hashRefs.containsKey(key)) {
-			MySoftRef ref = hashRefs.get(key);
-			bm = ref.get();
+		//从内存缓存中取
+		if (key != null) {
+			bm = mLruCache.get(key);
 			if(bm!=null){
 				if(DEBUG) Log.i(TAG, "---getBitmap 从缓存中获取=>"+key);
 				setBitmap(view,bm);
 				if(imageDownLoadCallback!=null){
 					imageDownLoadCallback.imageDownLoaded(bm);
 				}
-				return;
+				return null;
 			}
 		}
 		
@@ -133,7 +189,7 @@ public class BitmapCache {
 				if(imageDownLoadCallback!=null){
 					imageDownLoadCallback.imageDownLoaded(bm);
 				}
-				return;
+				return null;
 			}
 		}
 		
@@ -152,10 +208,10 @@ public class BitmapCache {
 			if(imageDownLoadCallback!=null){
 				imageDownLoadCallback.imageDownLoaded(bm);
 			}
-			return;
+			return null;
 		}		
 		
-		LauncherApplication.mService.GotoNetwork(new CallBack() {
+		return LauncherApplication.mService.GotoNetwork(new CallBack() {
 			Bitmap bitmap = null;
 			@Override
 			public void onPreExecute() {
@@ -191,21 +247,33 @@ public class BitmapCache {
 	 * @param view
 	 * @param imageDownLoadCallback
 	 * @param option
+	 * @return 需要联网时返回可取消的任务句柄，否则返回null
 	 */
-	public void getBitmap(final String key, final View view,final ImageDownLoadCallback imageDownLoadCallback,final ImageOption... option){
-		getBitmap(key, view, imageDownLoadCallback, ".png", option);
+	public NetworkExecutor.Task getBitmap(final String key, final View view,final ImageDownLoadCallback imageDownLoadCallback,final ImageOption... option){
+		return getBitmap(key, view, imageDownLoadCallback, ".png", option);
 	}
-	private void cleanCache() {
-		MySoftRef ref = null;
-		while ((ref = (MySoftRef) queue.poll()) != null) {
-			hashRefs.remove(ref.key);
-		}
+	public void clearCache() {
+		mLruCache.evictAll();
 	}
 
-	public void clearCache() {
-		cleanCache();
-		hashRefs.clear();
-		hashRefs = null;
-		System.runFinalization();
+	@Override
+	public String getName() {
+		return TAG;
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		return mLruCache.size();
+	}
+
+	@Override
+	public void trimMemory(int level) {
+		mTrimmedCount += MemoryGovernor.trimLruCache(mLruCache, (int) (mLruCache.size() * MemoryGovernor.getKeepFraction(level)));
+	}
+
+	@Override
+	public CacheStats getStats() {
+		return new CacheStats(TAG, getHitCount(), getMissCount(), getEvictionCount(),
+				mLruCache.snapshot().size(), size(), maxSize());
 	}
 }
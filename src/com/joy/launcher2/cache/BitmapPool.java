@@ -0,0 +1,217 @@
+package com.joy.launcher2.cache;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Bitmap复用池：内存缓存淘汰的Bitmap不再recycle，而是按尺寸放进池中，
+ * 解码同样尺寸的图片时通过inBitmap直接解码到池中的Bitmap，滑动壁纸列表时不再每格分配一张新的Bitmap。
+ * API 19以前inBitmap要求尺寸完全相同，所以按宽×高×格式分类
+ */
+public class BitmapPool implements MemoryGovernor.Trimmable, CacheStats.Provider {
+
+	private static final String TAG = "BitmapPool";
+	private static final boolean DEBUG = false;
+	// API 19起inSampleSize不为1时也可以用inBitmap
+	private static final int VERSION_CODES_KITKAT = 19;
+
+	private final long mMaxSize;
+	private long mSize;
+	// 尺寸 -> 同尺寸的Bitmap
+	private final Map<String, LinkedList<Bitmap>> mPool = new HashMap<String, LinkedList<Bitmap>>();
+	// 放入的顺序，超出上限时先丢最早放入的
+	private final LinkedList<Bitmap> mOrder = new LinkedList<Bitmap>();
+	private int mHitCount;
+	private int mMissCount;
+	private int mEvictionCount;
+
+	public BitmapPool(long maxSize) {
+		mMaxSize = maxSize;
+		MemoryGovernor.getInstance().register(this);
+		CacheStats.register(this);
+	}
+
+	private static String getKey(int width, int height, Bitmap.Config config) {
+		return width + "x" + height + ":" + config;
+	}
+
+	private static int getSize(Bitmap bm) {
+		return bm.getRowBytes() * bm.getHeight();
+	}
+
+	/**
+	 * 放入不再显示的Bitmap，不能复用的（不可修改、已回收）直接回收
+	 */
+	public synchronized void put(Bitmap bm) {
+		if (bm == null || bm.isRecycled()) {
+			return;
+		}
+		if (!bm.isMutable() || bm.getConfig() == null || getSize(bm) > mMaxSize) {
+			bm.recycle();
+			return;
+		}
+		String key = getKey(bm.getWidth(), bm.getHeight(), bm.getConfig());
+		LinkedList<Bitmap> list = mPool.get(key);
+		if (list == null) {
+			list = new LinkedList<Bitmap>();
+			mPool.put(key, list);
+		}
+		list.add(bm);
+		mOrder.add(bm);
+		mSize += getSize(bm);
+		trimToSize(mMaxSize);
+	}
+
+	/**
+	 * 回收最早放入的Bitmap，直到不超过maxSize
+	 */
+	public synchronized void trimToSize(long maxSize) {
+		while (mSize > maxSize && !mOrder.isEmpty()) {
+			Bitmap eldest = mOrder.removeFirst();
+			mPool.get(getKey(eldest.getWidth(), eldest.getHeight(), eldest.getConfig())).remove(eldest);
+			mSize -= getSize(eldest);
+			mEvictionCount++;
+			eldest.recycle();
+		}
+	}
+
+	@Override
+	public String getName() {
+		return TAG;
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		return getSize();
+	}
+
+	/**
+	 * 池中的Bitmap没有在显示，可以直接回收
+	 */
+	@Override
+	public void trimMemory(int level) {
+		trimToSize((long) (getSize() * MemoryGovernor.getKeepFraction(level)));
+	}
+
+	@Override
+	public synchronized CacheStats getStats() {
+		return new CacheStats(TAG, mHitCount, mMissCount, mEvictionCount, mOrder.size(), mSize, mMaxSize);
+	}
+
+	/**
+	 * 重新显示的Bitmap从池中拿出来，不再被复用
+	 */
+	public synchronized void remove(Bitmap bm) {
+		if (bm == null || !mOrder.remove(bm)) {
+			return;
+		}
+		LinkedList<Bitmap> list = mPool.get(getKey(bm.getWidth(), bm.getHeight(), bm.getConfig()));
+		if (list != null) {
+			list.remove(bm);
+		}
+		mSize -= getSize(bm);
+	}
+
+	/**
+	 * 取出一张指定尺寸的Bitmap，没有时返回null
+	 */
+	public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+		LinkedList<Bitmap> list = mPool.get(getKey(width, height, config));
+		if (list == null || list.isEmpty()) {
+			mMissCount++;
+			return null;
+		}
+		Bitmap bm = list.removeLast();
+		mOrder.remove(bm);
+		mSize -= getSize(bm);
+		mHitCount++;
+		return bm;
+	}
+
+	/**
+	 * 2的幂的缩小倍数，缩小后的宽度不小于width（width<=0时不缩小）
+	 */
+	public static int computeSampleSize(int srcWidth, int width) {
+		int sampleSize = 1;
+		if (width > 0) {
+			while (srcWidth / (sampleSize * 2) >= width) {
+				sampleSize *= 2;
+			}
+		}
+		return sampleSize;
+	}
+
+	/**
+	 * 解码文件，尺寸相同时复用池中的Bitmap。解码出的Bitmap是可修改的，不用时可以放回池中
+	 */
+	public Bitmap decodeFile(String path) {
+		return decodeFile(path, 0);
+	}
+
+	/**
+	 * 解码文件，按width缩小（2的幂，缩小后宽度不小于width，width<=0时不缩小），
+	 * 之后由调用者缩放到width，不用先解码出原图
+	 */
+	public Bitmap decodeFile(String path, int width) {
+		BitmapFactory.Options opts = new BitmapFactory.Options();
+		opts.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, opts);
+		if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+			return null;
+		}
+		opts.inJustDecodeBounds = false;
+		opts.inMutable = true;
+		opts.inSampleSize = computeSampleSize(opts.outWidth, width);
+		Bitmap reuse = null;
+		// API 19以前缩小解码不能用inBitmap；缩小后的尺寸不完全一致时下面解码失败，再不复用解码
+		if (opts.inSampleSize == 1 || Build.VERSION.SDK_INT >= VERSION_CODES_KITKAT) {
+			reuse = get(opts.outWidth / opts.inSampleSize, opts.outHeight / opts.inSampleSize, Bitmap.Config.ARGB_8888);
+		}
+		if (reuse != null) {
+			opts.inBitmap = reuse;
+			try {
+				Bitmap bm = BitmapFactory.decodeFile(path, opts);
+				if (bm != null) {
+					return bm;
+				}
+			} catch (IllegalArgumentException e) {
+				// 格式不支持复用
+				if (DEBUG) Log.w(TAG, "---decodeFile " + path + " : " + e);
+			}
+			opts.inBitmap = null;
+			put(reuse);
+		}
+		return BitmapFactory.decodeFile(path, opts);
+	}
+
+	public synchronized void clear() {
+		for (Bitmap bm : mOrder) {
+			bm.recycle();
+		}
+		mOrder.clear();
+		mPool.clear();
+		mSize = 0;
+	}
+
+	public synchronized long getSize() {
+		return mSize;
+	}
+
+	public synchronized int getCount() {
+		return mOrder.size();
+	}
+
+	public synchronized int getHitCount() {
+		return mHitCount;
+	}
+
+	public synchronized int getMissCount() {
+		return mMissCount;
+	}
+}
@@ -0,0 +1,197 @@
+package com.joy.launcher2.cache;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * 缓存统计：各个缓存（图标、壁纸、小部件预览等）的命中、未命中、淘汰次数和占用的字节数。
+ * 缓存实现{@link Provider}并在这里登记，通过{@link #dump(PrintWriter)}（dumpsys）或{@link #dumpState()}（logcat）统一输出，
+ * 按实际的命中率和占用调整缓存大小。
+ * 只保存弱引用，随Activity创建的缓存不用注销
+ */
+public class CacheStats {
+
+	private static final String TAG = "CacheStats";
+
+	private static final List<WeakReference<Provider>> sProviders = new ArrayList<WeakReference<Provider>>();
+
+	/**
+	 * 提供统计的缓存
+	 */
+	public interface Provider {
+		/**
+		 * 当前统计的快照，可能在任意线程调用
+		 */
+		CacheStats getStats();
+	}
+
+	/**
+	 * 不是LruCache的缓存用来计数，线程安全
+	 */
+	public static class Counter {
+		private int mHitCount;
+		private int mMissCount;
+		private int mEvictionCount;
+
+		public synchronized void hit() {
+			mHitCount++;
+		}
+
+		public synchronized void miss() {
+			mMissCount++;
+		}
+
+		public synchronized void evict(int count) {
+			mEvictionCount += count;
+		}
+
+		/**
+		 * @param maxSize 上限（字节），没有上限时为0
+		 */
+		public synchronized CacheStats snapshot(String name, int count, long size, long maxSize) {
+			return new CacheStats(name, mHitCount, mMissCount, mEvictionCount, count, size, maxSize);
+		}
+	}
+
+	private final String mName;
+	private final int mHitCount;
+	private final int mMissCount;
+	private final int mEvictionCount;
+	private final int mCount;
+	private final long mSize;
+	private final long mMaxSize;
+
+	public CacheStats(String name, int hitCount, int missCount, int evictionCount, int count, long size, long maxSize) {
+		mName = name;
+		mHitCount = hitCount;
+		mMissCount = missCount;
+		mEvictionCount = evictionCount;
+		mCount = count;
+		mSize = size;
+		mMaxSize = maxSize;
+	}
+
+	public static void register(Provider provider) {
+		synchronized (sProviders) {
+			for (WeakReference<Provider> ref : sProviders) {
+				if (ref.get() == provider) {
+					return;
+				}
+			}
+			sProviders.add(new WeakReference<Provider>(provider));
+		}
+	}
+
+	public static void unregister(Provider provider) {
+		synchronized (sProviders) {
+			Iterator<WeakReference<Provider>> it = sProviders.iterator();
+			while (it.hasNext()) {
+				Provider p = it.next().get();
+				if (p == null || p == provider) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 所有登记的缓存当前的统计
+	 */
+	public static List<CacheStats> getAll() {
+		List<Provider> providers = new ArrayList<Provider>();
+		synchronized (sProviders) {
+			Iterator<WeakReference<Provider>> it = sProviders.iterator();
+			while (it.hasNext()) {
+				Provider p = it.next().get();
+				if (p == null) {
+					it.remove();
+				} else {
+					providers.add(p);
+				}
+			}
+		}
+		// 在锁外取统计，缓存自己的锁不与这里嵌套
+		List<CacheStats> list = new ArrayList<CacheStats>(providers.size());
+		for (Provider p : providers) {
+			try {
+				list.add(p.getStats());
+			} catch (RuntimeException e) {
+				Log.e(TAG, "---getAll " + p + " : " + e);
+			}
+		}
+		return list;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public int getHitCount() {
+		return mHitCount;
+	}
+
+	public int getMissCount() {
+		return mMissCount;
+	}
+
+	public int getEvictionCount() {
+		return mEvictionCount;
+	}
+
+	public int getCount() {
+		return mCount;
+	}
+
+	public long getSize() {
+		return mSize;
+	}
+
+	public long getMaxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 * 命中率，还没有访问时为-1
+	 */
+	public float getHitRatio() {
+		int total = mHitCount + mMissCount;
+		return total > 0 ? (float) mHitCount / total : -1f;
+	}
+
+	@Override
+	public String toString() {
+		float ratio = getHitRatio();
+		return mName + " hits=" + mHitCount + " misses=" + mMissCount
+				+ " hitRatio=" + (ratio < 0 ? "-" : String.format("%.2f", ratio))
+				+ " evictions=" + mEvictionCount + " count=" + mCount
+				+ " size=" + mSize + " maxSize=" + (mMaxSize > 0 && mMaxSize < Long.MAX_VALUE ? String.valueOf(mMaxSize) : "-");
+	}
+
+	public static void dump(PrintWriter writer) {
+		writer.println("Cache stats:");
+		for (CacheStats stats : getAll()) {
+			writer.println("  " + stats);
+		}
+		writer.println("  trimmable size=" + MemoryGovernor.getInstance().getTotalSize()
+				+ " lastTrimLevel=" + MemoryGovernor.getInstance().getLastLevel());
+	}
+
+	/**
+	 * 输出到logcat，供Launcher.dumpState调用
+	 */
+	public static void dumpState() {
+		StringWriter sw = new StringWriter();
+		PrintWriter writer = new PrintWriter(sw);
+		dump(writer);
+		writer.flush();
+		for (String line : sw.toString().split("\n")) {
+			Log.d(TAG, line);
+		}
+	}
+}
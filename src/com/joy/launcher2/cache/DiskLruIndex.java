@@ -0,0 +1,450 @@
+package com.joy.launcher2.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.util.Log;
+
+/**
+ * 一个缓存目录的LRU索引：内存中按访问顺序记录目录里的文件和大小，总大小超过上限时在后台删除最久未用的文件。
+ * 操作记录追加到目录下的日志文件（C 提交 / R 读取 / D 删除），启动时重放日志恢复访问顺序；
+ * 写文件先写临时文件再改名，异常退出时不会留下半截文件。
+ * 文件名可以带一级子目录（如"3f/3f78..."），避免单个目录下文件过多。
+ * 创建时不读取日志，第一次使用时（或{@link #ensureLoaded()}）才加载，主线程用{@link #peek(String)}不会等待加载。
+ * 每个目录单独登记到{@link CacheStats}
+ */
+public class DiskLruIndex implements CacheStats.Provider {
+
+	private static final String TAG = "DiskLruIndex";
+	private static final boolean DEBUG = false;
+
+	static final String JOURNAL_FILE = ".journal";
+	static final String SUFFIX_TMP = ".tmp";
+	// 日志行数超过条目数的倍数（且超过最小值）时重写日志
+	private static final int COMPACT_MIN_LINES = 2000;
+	private static final int COMPACT_FACTOR = 2;
+	// 读取记录只影响访问顺序，攒够这么多行（或有提交、删除记录时）才写入日志文件
+	private static final int READ_FLUSH_LINES = 64;
+
+	private static final char OP_COMMIT = 'C';
+	private static final char OP_READ = 'R';
+	private static final char OP_DELETE = 'D';
+
+	// 所有目录共用一个后台线程做淘汰和日志重写
+	private static final ExecutorService sTrimExecutor = Executors.newSingleThreadExecutor();
+
+	private final File mDir;
+	private final File mJournal;
+	private long mMaxSize;
+	private long mSize;
+	private int mJournalLines;
+	// 还没写入日志文件的读取记录行数
+	private int mPendingReads;
+	private Writer mJournalWriter;
+	private boolean mTrimScheduled;
+	private volatile boolean mLoaded;
+	private final CacheStats.Counter mStats = new CacheStats.Counter();
+	// 访问顺序的LinkedHashMap：文件名 -> 大小
+	private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	// mEntries中文件名的并发副本，主线程peek时不用等锁（提交、淘汰时持有锁做文件操作）
+	private final Set<String> mKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final Runnable mTrimRunnable = new Runnable() {
+		@Override
+		public void run() {
+			trim();
+		}
+	};
+
+	public DiskLruIndex(File dir, long maxSize) {
+		mDir = dir;
+		mJournal = new File(dir, JOURNAL_FILE);
+		mMaxSize = maxSize;
+		CacheStats.register(this);
+	}
+
+	/**
+	 * 还没加载时读取日志、扫描目录（访问文件系统，不要在主线程调用）
+	 */
+	public synchronized void ensureLoaded() {
+		if (!mLoaded) {
+			load();
+			mLoaded = true;
+		}
+	}
+
+	public boolean isLoaded() {
+		return mLoaded;
+	}
+
+	/**
+	 * 读取日志，与目录中实际的文件对照：文件不存在的条目丢弃，不在日志里的文件按修改时间加入（旧版本留下的缓存）
+	 */
+	private void load() {
+		Map<String, File> onDisk = new HashMap<String, File>();
+		scan(mDir, null, onDisk);
+
+		if (mJournal.exists()) {
+			BufferedReader reader = null;
+			try {
+				reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournal), "UTF-8"));
+				String line;
+				while ((line = reader.readLine()) != null) {
+					mJournalLines++;
+					if (line.length() < 3 || line.charAt(1) != ' ') {
+						continue;
+					}
+					String name = line.substring(2);
+					switch (line.charAt(0)) {
+					case OP_COMMIT:
+					case OP_READ:
+						File file = onDisk.get(name);
+						if (file != null) {
+							mEntries.put(name, file.length());
+						}
+						break;
+					case OP_DELETE:
+						mEntries.remove(name);
+						break;
+					}
+				}
+			} catch (IOException e) {
+				if (DEBUG) Log.e(TAG, "---load " + mJournal + " : " + e);
+			} finally {
+				if (reader != null) {
+					try {
+						reader.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+
+		List<File> untracked = new ArrayList<File>();
+		for (Map.Entry<String, File> entry : onDisk.entrySet()) {
+			if (!mEntries.containsKey(entry.getKey())) {
+				untracked.add(entry.getValue());
+			}
+		}
+		if (!untracked.isEmpty()) {
+			File[] sorted = untracked.toArray(new File[untracked.size()]);
+			Arrays.sort(sorted, new Comparator<File>() {
+				@Override
+				public int compare(File lhs, File rhs) {
+					long l = lhs.lastModified();
+					long r = rhs.lastModified();
+					return l < r ? -1 : (l == r ? 0 : 1);
+				}
+			});
+			// 旧文件排在最前，最先被淘汰
+			LinkedHashMap<String, Long> tracked = new LinkedHashMap<String, Long>(mEntries);
+			mEntries.clear();
+			for (File file : sorted) {
+				mEntries.put(getName(file), file.length());
+			}
+			mEntries.putAll(tracked);
+		}
+		mSize = 0;
+		for (Long size : mEntries.values()) {
+			mSize += size;
+		}
+		mKeys.addAll(mEntries.keySet());
+		rewriteJournal();
+		if (DEBUG) Log.i(TAG, "---load " + mDir + " entries=" + mEntries.size() + " size=" + mSize);
+		scheduleTrimIfNeeded();
+	}
+
+	/**
+	 * 列出目录和一级子目录中的文件，顺便删除上次没写完的临时文件
+	 */
+	private void scan(File dir, String prefix, Map<String, File> onDisk) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (JOURNAL_FILE.equals(name) || (prefix == null && (JOURNAL_FILE + SUFFIX_TMP).equals(name))) {
+				continue;
+			}
+			if (name.endsWith(SUFFIX_TMP)) {
+				// 上次没写完的文件
+				file.delete();
+				continue;
+			}
+			if (file.isFile()) {
+				onDisk.put(prefix == null ? name : prefix + "/" + name, file);
+			} else if (prefix == null && file.isDirectory()) {
+				scan(file, name, onDisk);
+			}
+		}
+	}
+
+	/**
+	 * 文件相对于缓存目录的名字
+	 */
+	private String getName(File file) {
+		File parent = file.getParentFile();
+		return mDir.equals(parent) ? file.getName() : parent.getName() + "/" + file.getName();
+	}
+
+	/**
+	 * 在共用的后台线程中执行（如启动时预先加载索引）
+	 */
+	static void runInBackground(Runnable r) {
+		sTrimExecutor.execute(r);
+	}
+
+	public synchronized boolean contains(String name) {
+		ensureLoaded();
+		return mEntries.containsKey(name);
+	}
+
+	/**
+	 * 主线程调用：只查已加载的索引，还没加载时返回false，不等待加载也不等锁
+	 */
+	public boolean peek(String name) {
+		return mLoaded && mKeys.contains(name);
+	}
+
+	/**
+	 * 返回文件，不存在时返回null，同时记为最近使用
+	 */
+	public synchronized File get(String name) {
+		ensureLoaded();
+		if (mEntries.get(name) == null) {
+			mStats.miss();
+			return null;
+		}
+		mStats.hit();
+		appendJournal(OP_READ, name);
+		return new File(mDir, name);
+	}
+
+	/**
+	 * 写入用的临时文件，写完后调用{@link #commit(String, File)}
+	 */
+	public File newTempFile(String name) {
+		File tmp = new File(mDir, name + SUFFIX_TMP);
+		File parent = tmp.getParentFile();
+		if (!mDir.equals(parent) && !parent.exists()) {
+			parent.mkdirs();
+		}
+		return tmp;
+	}
+
+	/**
+	 * 把写完的临时文件改名为正式文件并加入索引
+	 * @return 是否成功
+	 */
+	public synchronized boolean commit(String name, File tmp) {
+		ensureLoaded();
+		File target = new File(mDir, name);
+		if (!tmp.renameTo(target)) {
+			target.delete();
+			if (!tmp.renameTo(target)) {
+				tmp.delete();
+				remove(name);
+				return false;
+			}
+		}
+		Long old = mEntries.put(name, target.length());
+		mKeys.add(name);
+		if (old != null) {
+			mSize -= old;
+		}
+		mSize += target.length();
+		appendJournal(OP_COMMIT, name);
+		scheduleTrimIfNeeded();
+		return true;
+	}
+
+	/**
+	 * 删除文件（如文件损坏）
+	 */
+	public synchronized void remove(String name) {
+		ensureLoaded();
+		Long old = mEntries.remove(name);
+		mKeys.remove(name);
+		if (old != null) {
+			mSize -= old;
+			appendJournal(OP_DELETE, name);
+		}
+		new File(mDir, name).delete();
+	}
+
+	public String getDirName() {
+		return mDir.getName();
+	}
+
+	public synchronized long getSize() {
+		ensureLoaded();
+		return mSize;
+	}
+
+	public synchronized int getCount() {
+		ensureLoaded();
+		return mEntries.size();
+	}
+
+	public synchronized long getMaxSize() {
+		return mMaxSize;
+	}
+
+	public synchronized void setMaxSize(long maxSize) {
+		mMaxSize = maxSize;
+		if (mLoaded) {
+			// 还没加载时，加载完会检查
+			scheduleTrimIfNeeded();
+		}
+	}
+
+	@Override
+	public synchronized CacheStats getStats() {
+		return mStats.snapshot("disk:" + mDir.getName(), mEntries.size(), mSize, mMaxSize);
+	}
+
+	private void scheduleTrimIfNeeded() {
+		boolean compact = mJournalLines > COMPACT_MIN_LINES && mJournalLines > mEntries.size() * COMPACT_FACTOR;
+		if ((mSize > mMaxSize || compact) && !mTrimScheduled) {
+			mTrimScheduled = true;
+			sTrimExecutor.execute(mTrimRunnable);
+		}
+	}
+
+	/**
+	 * 后台线程：删除最久未用的文件直到不超过上限，必要时重写日志
+	 */
+	private void trim() {
+		List<String> victims = new ArrayList<String>();
+		synchronized (this) {
+			mTrimScheduled = false;
+			Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+			while (mSize > mMaxSize && it.hasNext()) {
+				Map.Entry<String, Long> entry = it.next();
+				mSize -= entry.getValue();
+				victims.add(entry.getKey());
+				it.remove();
+				mKeys.remove(entry.getKey());
+				appendJournal(OP_DELETE, entry.getKey());
+			}
+			if (mJournalLines > COMPACT_MIN_LINES && mJournalLines > mEntries.size() * COMPACT_FACTOR) {
+				rewriteJournal();
+			}
+			flushJournal();
+		}
+		for (String name : victims) {
+			synchronized (this) {
+				// 释放锁之后可能又提交了同名文件，这时不能删
+				if (!mEntries.containsKey(name)) {
+					new File(mDir, name).delete();
+				}
+			}
+		}
+		mStats.evict(victims.size());
+		if (DEBUG && !victims.isEmpty()) Log.i(TAG, "---trim " + mDir + " deleted " + victims.size());
+	}
+
+	/**
+	 * 按当前顺序写一份只含提交记录的新日志，写完再替换旧日志
+	 */
+	private void rewriteJournal() {
+		closeJournal();
+		File tmp = new File(mDir, JOURNAL_FILE + SUFFIX_TMP);
+		Writer writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+			for (String name : mEntries.keySet()) {
+				writer.write(OP_COMMIT);
+				writer.write(' ');
+				writer.write(name);
+				writer.write('\n');
+			}
+			writer.close();
+			writer = null;
+			if (!tmp.renameTo(mJournal)) {
+				mJournal.delete();
+				tmp.renameTo(mJournal);
+			}
+			mJournalLines = mEntries.size();
+		} catch (IOException e) {
+			if (DEBUG) Log.e(TAG, "---rewriteJournal " + mDir + " : " + e);
+			tmp.delete();
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private void appendJournal(char op, String name) {
+		try {
+			if (mJournalWriter == null) {
+				mJournalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mJournal, true), "UTF-8"));
+			}
+			mJournalWriter.write(op);
+			mJournalWriter.write(' ');
+			mJournalWriter.write(name);
+			mJournalWriter.write('\n');
+			mJournalLines++;
+			if (op != OP_READ || ++mPendingReads >= READ_FLUSH_LINES) {
+				// 读取记录和下一条提交、删除记录一起写入
+				mJournalWriter.flush();
+				mPendingReads = 0;
+			}
+		} catch (IOException e) {
+			// 日志写失败只影响下次启动时的访问顺序，启动时会按目录中的文件修正
+			if (DEBUG) Log.e(TAG, "---appendJournal " + mDir + " : " + e);
+			closeJournal();
+		}
+		if (op == OP_READ && mJournalLines > COMPACT_MIN_LINES) {
+			scheduleTrimIfNeeded();
+		}
+	}
+
+	private void flushJournal() {
+		if (mJournalWriter != null && mPendingReads > 0) {
+			try {
+				mJournalWriter.flush();
+			} catch (IOException e) {
+				if (DEBUG) Log.e(TAG, "---flushJournal " + mDir + " : " + e);
+				closeJournal();
+			}
+			mPendingReads = 0;
+		}
+	}
+
+	private void closeJournal() {
+		mPendingReads = 0;
+		if (mJournalWriter != null) {
+			try {
+				mJournalWriter.close();
+			} catch (IOException e) {
+			}
+			mJournalWriter = null;
+		}
+	}
+}
@@ -9,22 +9,44 @@ import java.util.Map.Entry;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.LruCache;
 
 /**
- * 内存缓存：通过一个固定大小的缓存LruCache来缓存Bitmap，超出最大值，显示调用bitmap回收
+ * 内存缓存：通过一个固定大小的缓存LruCache来缓存Bitmap，超出最大值，放入{@link BitmapPool}复用（没有池时回收）。
+ * 淘汰的Bitmap可能还在显示，有池时在主线程通过{@link InUseChecker}确认没有显示才放入池中，
+ * 还在显示的交给GC，不会被inBitmap解码覆盖
  * @author huangming
  *
  */
-public class ImageMemoryCache {
+public class ImageMemoryCache implements MemoryGovernor.Trimmable, CacheStats.Provider {
 	
 	private final static int SOFT_CACHE_SIZE = 15;
 	private  LruCache<String, Bitmap> mLruCache;
 	private  Map<String, SoftReference<Bitmap>> mSoftCache;
+	private final BitmapPool mBitmapPool;
+	// 软引用缓存中找到的也算命中，LruCache自己的计数不包括
+	private final CacheStats.Counter mStats = new CacheStats.Counter();
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+	private volatile InUseChecker mInUseChecker;
+	
+	/**
+	 * 判断Bitmap是否还在显示，在主线程调用
+	 */
+	public interface InUseChecker {
+		boolean isInUse(Bitmap bitmap);
+	}
 	
 	
 	public ImageMemoryCache(Context context)
 	{
+		this(context, null);
+	}
+	
+	public ImageMemoryCache(Context context, BitmapPool bitmapPool)
+	{
+		mBitmapPool = bitmapPool;
 		int cacheSize = (int) (Runtime.getRuntime().maxMemory() / 8);
 		mLruCache = new LruCache<String, Bitmap>(cacheSize){
 
@@ -34,7 +56,15 @@ public class ImageMemoryCache {
 				// TODO Auto-generated method stub
                 if(evicted && oldValue != null && !oldValue.isRecycled())
                 {
-                	oldValue.recycle();
+                	mStats.evict(1);
+                	if(mBitmapPool != null)
+                	{
+                		putToPool(oldValue);
+                	}
+                	else
+                	{
+                		oldValue.recycle();
+                	}
                 	oldValue = null;
                 }
                    
@@ -69,16 +99,37 @@ public class ImageMemoryCache {
                 return false; 
 			}
 		});
-		
+		MemoryGovernor.getInstance().register(this);
+		CacheStats.register(this);
 	}
 	
 	
+    public void setInUseChecker(InUseChecker checker) {
+    	mInUseChecker = checker;
+    }
+    
+    /**
+     * 在主线程（绑定ImageView的线程）判断，没有显示时才放入池中；不能判断时不复用
+     */
+    private void putToPool(final Bitmap bitmap) {
+    	mMainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				InUseChecker checker = mInUseChecker;
+				if (checker != null && !checker.isInUse(bitmap)) {
+					mBitmapPool.put(bitmap);
+				}
+			}
+		});
+    }
+    
     public Bitmap getBitmapFromCache(String url) {
         Bitmap bitmap;
             bitmap = mLruCache.get(url);
             if (bitmap != null) {
                 mLruCache.remove(url);
                 mLruCache.put(url, bitmap);
+                mStats.hit();
                 return bitmap;
             }
             SoftReference<Bitmap> bitmapReference = mSoftCache.get(url);
@@ -87,11 +138,13 @@ public class ImageMemoryCache {
                 if (bitmap != null) {
                     mLruCache.put(url, bitmap);
                     mSoftCache.remove(url);
+                    mStats.hit();
                     return bitmap;
                 } else {
                     mSoftCache.remove(url);
                 }
             }
+        mStats.miss();
         return null;
     } 
     
@@ -106,6 +159,30 @@ public class ImageMemoryCache {
         if(mLruCache != null)mLruCache.evictAll();
     }
     
+    @Override
+    public String getName() {
+    	return "ImageMemoryCache";
+    }
+    
+    @Override
+    public long getSizeInBytes() {
+    	return mLruCache.size();
+    }
+    
+    /**
+     * 按比例删除最久未用的图片（不回收，可能还在显示）
+     */
+    @Override
+    public void trimMemory(int level) {
+    	mSoftCache.clear();
+    	mStats.evict(MemoryGovernor.trimLruCache(mLruCache, (int) (mLruCache.size() * MemoryGovernor.getKeepFraction(level))));
+    }
+    
+    @Override
+    public CacheStats getStats() {
+    	return mStats.snapshot(getName(), mLruCache.snapshot().size(), mLruCache.size(), mLruCache.maxSize());
+    }
+    
     public String toString()
     {
     	return mLruCache.size() + "   " + mSoftCache.size();
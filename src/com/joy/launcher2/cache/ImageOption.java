@@ -9,6 +9,7 @@ public class ImageOption {
 	private boolean inclinationHeight;// 倾向高(遇到宽比高长的，旋转90度)
 	private int width = -1; // 下载后的图片宽
 	private int height = -1;// 下载后的图片高
+	private boolean scaleInDecoder;// 解码时直接缩放到指定宽高(否则只按2的幂缩小，不小于指定宽高)
 
 	public ImageOption() {
 
@@ -57,4 +58,12 @@ public class ImageOption {
 		this.height = height;
 	}
 
+	public boolean isScaleInDecoder() {
+		return scaleInDecoder;
+	}
+
+	public void setScaleInDecoder(boolean scaleInDecoder) {
+		this.scaleInDecoder = scaleInDecoder;
+	}
+
 }
@@ -0,0 +1,177 @@
+package com.joy.launcher2.cache;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * 内存调度：各个缓存（图标、壁纸、小部件预览等）在这里登记，报告占用的字节数并响应释放请求。
+ * LauncherApplication在onTrimMemory/onLowMemory时通知所有缓存按同一个比例释放，
+ * 低内存设备上由缓存主动让出内存，而不是等进程被杀。
+ * 只保存弱引用，随Activity创建的缓存不用注销
+ */
+public class MemoryGovernor {
+
+	private static final String TAG = "MemoryGovernor";
+	private static final boolean DEBUG = true;
+
+	private static final MemoryGovernor sInstance = new MemoryGovernor();
+
+	/**
+	 * 可释放的缓存
+	 */
+	public interface Trimmable {
+		/**
+		 * 名字，用于日志
+		 */
+		String getName();
+
+		/**
+		 * 当前占用的字节数（估算）
+		 */
+		long getSizeInBytes();
+
+		/**
+		 * 释放内存，至少释放到{@link MemoryGovernor#getKeepFraction(int)}的比例
+		 * @param level ComponentCallbacks2.TRIM_MEMORY_*
+		 */
+		void trimMemory(int level);
+	}
+
+	private final List<WeakReference<Trimmable>> mTrimmables = new ArrayList<WeakReference<Trimmable>>();
+	private int mLastLevel = -1;
+
+	private MemoryGovernor() {
+	}
+
+	public static MemoryGovernor getInstance() {
+		return sInstance;
+	}
+
+	public synchronized void register(Trimmable trimmable) {
+		for (WeakReference<Trimmable> ref : mTrimmables) {
+			if (ref.get() == trimmable) {
+				return;
+			}
+		}
+		mTrimmables.add(new WeakReference<Trimmable>(trimmable));
+	}
+
+	public synchronized void unregister(Trimmable trimmable) {
+		Iterator<WeakReference<Trimmable>> it = mTrimmables.iterator();
+		while (it.hasNext()) {
+			Trimmable t = it.next().get();
+			if (t == null || t == trimmable) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * 当前登记的缓存（去掉已被回收的）
+	 */
+	public synchronized List<Trimmable> getTrimmables() {
+		List<Trimmable> list = new ArrayList<Trimmable>(mTrimmables.size());
+		Iterator<WeakReference<Trimmable>> it = mTrimmables.iterator();
+		while (it.hasNext()) {
+			Trimmable t = it.next().get();
+			if (t == null) {
+				it.remove();
+			} else {
+				list.add(t);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * 所有缓存占用的字节数
+	 */
+	public long getTotalSize() {
+		long total = 0;
+		for (Trimmable t : getTrimmables()) {
+			total += t.getSizeInBytes();
+		}
+		return total;
+	}
+
+	public int getLastLevel() {
+		return mLastLevel;
+	}
+
+	/**
+	 * 在主线程调用（onTrimMemory/onLowMemory）
+	 */
+	public void trimMemory(int level) {
+		mLastLevel = level;
+		List<Trimmable> trimmables = getTrimmables();
+		long before = 0;
+		long after = 0;
+		for (Trimmable t : trimmables) {
+			long size = t.getSizeInBytes();
+			try {
+				t.trimMemory(level);
+			} catch (RuntimeException e) {
+				Log.e(TAG, "---trimMemory " + t.getName() + " : " + e);
+			}
+			long trimmed = t.getSizeInBytes();
+			before += size;
+			after += trimmed;
+			if (DEBUG && size != trimmed) Log.i(TAG, "---trimMemory " + t.getName() + " " + size + " -> " + trimmed);
+		}
+		if (DEBUG) Log.i(TAG, "---trimMemory level=" + level + " total " + before + " -> " + after);
+	}
+
+	/**
+	 * 按内存紧张程度，缓存最多保留的比例：
+	 * 前台运行时逐级减少；界面隐藏后保留一半；进入后台列表后只保留少量；即将被杀时全部释放
+	 */
+	public static float getKeepFraction(int level) {
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+			return 0f;
+		}
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+			return 0.25f;
+		}
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+			return 0.5f;
+		}
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+			return 0.25f;
+		}
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			return 0.5f;
+		}
+		return 0.75f;
+	}
+
+	/**
+	 * 从最久未用的开始删除，直到不超过maxSize。LruCache.trimToSize在API 17之前不公开；
+	 * 用remove而不是evictAll，entryRemoved收到的evicted为false，还在显示的Bitmap不会被回收
+	 * @return 删除的条目数（不计入LruCache.evictionCount）
+	 */
+	public static <K, V> int trimLruCache(LruCache<K, V> cache, int maxSize) {
+		int removed = 0;
+		// snapshot按最久未用到最近使用排列
+		for (Map.Entry<K, V> entry : cache.snapshot().entrySet()) {
+			if (cache.size() <= maxSize) {
+				break;
+			}
+			if (cache.remove(entry.getKey()) != null) {
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	public static long getBitmapSize(Bitmap bm) {
+		return bm == null || bm.isRecycled() ? 0 : (long) bm.getRowBytes() * bm.getHeight();
+	}
+}
@@ -11,15 +11,29 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
 import android.os.Environment;
 
+import com.joy.launcher2.network.util.WriteThroughInputStream;
+
 /**
- * 缓存文件：各种文件读取操作
+ * 缓存文件：各种文件读取操作。
+ * 每个图片目录由一个{@link DiskLruIndex}管理，文件是否存在只查内存中的索引，不访问文件系统；
+ * 索引在后台线程加载，主线程用{@link #peekImageOnDiscCache}，索引还没加载时不等待。
+ * 在线壁纸、缩略图、类别等可重新下载的目录限制大小，文件名为url的SHA-1，按前两位分到子目录；
+ * 本地（用户保存的）壁纸目录不限制大小，文件名仍为url，与已保存的壁纸兼容。
+ * 网络图片边解码边把原始数据写入缓存，只有需要变换后的图片时才重新压缩
  * @author huangming
  *
  */
@@ -34,13 +48,51 @@ public class UnLimitedImageFileCache
 	private final static String RECOMMEND_FILE = "recommend";
 	private final static String NATIVE_ORIGIN_FILE = "native_origin";
 	
+	private final static String CATEGORY_FILE = "category";
+	
 	private final static String DIRCACHE = "joy_wallpaper_cache";
 	
+	// 网络流解析宽高时最多缓冲的字节数，超过时从缓存文件解码
+	private static final int MARK_LIMIT = 1024 * 1024;
+	
+	// 各缓存目录的大小上限，不在其中的目录不限制
+	private static final Map<String, Long> sMaxSizes = new HashMap<String, Long>();
+	static {
+		sMaxSizes.put(ONLINE_FILE, 30L * 1024 * 1024);
+		sMaxSizes.put(ONLINE_THUMBNAIL_FILE, 10L * 1024 * 1024);
+		sMaxSizes.put(RECOMMEND_FILE, 5L * 1024 * 1024);
+		sMaxSizes.put(CATEGORY_FILE, 2L * 1024 * 1024);
+	}
+	// 图片目录，启动时在后台加载索引
+	private static final String[] IMAGE_DIRS = {
+		ONLINE_FILE, ONLINE_THUMBNAIL_FILE, NATIVE_FILE, NATIVE_THUMBNAIL_FILE,
+		RECOMMEND_FILE, NATIVE_ORIGIN_FILE, CATEGORY_FILE
+	};
+	// 目录路径 -> 索引
+	private static final Map<String, DiskLruIndex> sIndexes = new HashMap<String, DiskLruIndex>();
+	// 目录名 -> 已创建的目录，只在第一次使用时访问文件系统
+	private final Map<String, File> mDirs = new HashMap<String, File>();
+	
 	private Context context;
+	private BitmapPool mBitmapPool;
 	
 	public UnLimitedImageFileCache(Context context)
 	{
 		this.context = context;
+		DiskLruIndex.runInBackground(new Runnable() {
+			
+			@Override
+			public void run() {
+				for(String dirName : IMAGE_DIRS)
+				{
+					DiskLruIndex index = getIndex(getOrMakeFileDir(dirName));
+					if(index != null)
+					{
+						index.ensureLoaded();
+					}
+				}
+			}
+		});
 	}
 	
 	private File getCacheDirectory()
@@ -62,6 +114,81 @@ public class UnLimitedImageFileCache
 		return appCacheDir;
 	}
 	
+	/**
+	 * 设置缓存目录的大小上限
+	 * @param dirFileName 如"online"
+	 */
+	public static void setMaxSize(String dirFileName, long maxSize)
+	{
+		List<DiskLruIndex> indexes = new ArrayList<DiskLruIndex>();
+		synchronized (sIndexes) {
+			sMaxSizes.put(dirFileName, maxSize);
+			for (DiskLruIndex index : sIndexes.values()) {
+				// 索引以目录路径为key，按目录名匹配
+				if (index != null && dirFileName.equals(index.getDirName())) {
+					indexes.add(index);
+				}
+			}
+		}
+		// 在全局锁外设置，索引可能正在加载
+		for (DiskLruIndex index : indexes) {
+			index.setMaxSize(maxSize);
+		}
+	}
+	
+	/**
+	 * 目录的索引。创建时不加载，第一次使用时在索引自己的锁中读取日志（构造时已在后台加载），
+	 * 不占用全局的锁
+	 */
+	private static DiskLruIndex getIndex(File dirFile)
+	{
+		if (dirFile == null) {
+			return null;
+		}
+		synchronized (sIndexes) {
+			String path = dirFile.getPath();
+			DiskLruIndex index = sIndexes.get(path);
+			if (index == null) {
+				Long maxSize = sMaxSizes.get(dirFile.getName());
+				index = new DiskLruIndex(dirFile, maxSize == null ? Long.MAX_VALUE : maxSize);
+				sIndexes.put(path, index);
+			}
+			return index;
+		}
+	}
+	
+	/**
+	 * url在目录中的文件名：限制大小的缓存目录用SHA-1分片（如"3f/3f786850e387550fdab836ed7e6dc881de23001b"），其他目录用url本身
+	 */
+	private static String getFileName(File dirFile, String url)
+	{
+		if (url == null) {
+			return null;
+		}
+		if (!sMaxSizes.containsKey(dirFile.getName())) {
+			return url;
+		}
+		String hash = sha1(url);
+		return hash.substring(0, 2) + "/" + hash;
+	}
+	
+	private static String sha1(String s)
+	{
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] bytes = digest.digest(s.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder(bytes.length * 2);
+			for (byte b : bytes) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
 	private static boolean hasExternalStoragePermission(Context context) {
 		int perm = context.checkCallingOrSelfPermission(EXTERNAL_STORAGE_PERMISSION);
 		return perm == PackageManager.PERMISSION_GRANTED;
@@ -70,19 +197,22 @@ public class UnLimitedImageFileCache
 	public File getOrMakeFileDir(String fileName)
 	{
 		if(fileName == null)return null;
+		synchronized (mDirs) {
+			File cached = mDirs.get(fileName);
+			if(cached != null)
+			{
+				return cached;
+			}
+		}
 		File dirFile = getCacheDirectory();
 		if(dirFile != null)
 		{
 			File file = new File(dirFile, fileName);
-			if(!file.exists())
+			if(file.exists() || file.mkdirs())
 			{
-				if(file.mkdirs())
-				{
-					return file;
+				synchronized (mDirs) {
+					mDirs.put(fileName, file);
 				}
-			}
-			else
-			{
 				return file;
 			}
 		}
@@ -116,10 +246,6 @@ public class UnLimitedImageFileCache
 		return file;
 	}
 	
-	private String convertUrlToFileName(String url) {
-		return url;
-    }
-	
 	public boolean isImageOnDiscCache(String url)
 	{
 		return isImageOnDiscCache(url, NATIVE_ORIGIN_FILE);
@@ -127,10 +253,36 @@ public class UnLimitedImageFileCache
 	
 	public boolean isImageOnDiscCache(String url, String dirFileName)
 	{
-		String fileName = convertUrlToFileName(url);
 		File imageFileDir = getOrMakeFileDir(dirFileName);
-		File imageFile = new File(imageFileDir, fileName);
-		return imageFile.exists();
+		String fileName = imageFileDir == null ? null : getFileName(imageFileDir, url);
+		if (fileName == null) {
+			return false;
+		}
+		return getIndex(imageFileDir).contains(fileName);
+	}
+	
+	/**
+	 * 主线程调用：本地保存的原图是否存在，同{@link #peekImageOnDiscCache(String, String)}
+	 */
+	public boolean peekImageOnDiscCache(String url)
+	{
+		return peekImageOnDiscCache(url, NATIVE_ORIGIN_FILE);
+	}
+	
+	/**
+	 * 主线程调用：不访问文件系统，目录还没创建或索引还没加载时返回false（由后台任务再判断）
+	 */
+	public boolean peekImageOnDiscCache(String url, String dirFileName)
+	{
+		File imageFileDir;
+		synchronized (mDirs) {
+			imageFileDir = mDirs.get(dirFileName);
+		}
+		String fileName = imageFileDir == null ? null : getFileName(imageFileDir, url);
+		if (fileName == null) {
+			return false;
+		}
+		return getIndex(imageFileDir).peek(fileName);
 	}
 	
 	public File getNativeThumFile()
@@ -168,62 +320,194 @@ public class UnLimitedImageFileCache
 		return getOrMakeFileDir(NATIVE_ORIGIN_FILE);
 	}
 	
+	/**
+	 * 设置后从文件解码时复用池中同尺寸的Bitmap
+	 */
+	public void setBitmapPool(BitmapPool bitmapPool)
+	{
+		mBitmapPool = bitmapPool;
+	}
+	
+	/**
+	 * 重新压缩保存Bitmap，只在需要保存变换后的图片时使用；网络图片用{@link #decodeAndSaveStream}保存原始数据
+	 */
 	public boolean saveBitmapToFile(Bitmap bm, File dirFile, String url)
 	{
 		boolean saveSuccessful = false;
-		String fileName = convertUrlToFileName(url);
-		if(bm != null && dirFile != null && fileName != null)
+		String fileName = dirFile == null ? null : getFileName(dirFile, url);
+		if(bm != null && fileName != null)
 		{
-			File imageFile = new File(dirFile, fileName);
+			DiskLruIndex index = getIndex(dirFile);
+			// 先写临时文件，写完再提交
+			File imageFile = index.newTempFile(fileName);
 			try 
 			{
-				imageFile.createNewFile();
 				OutputStream outStream = new FileOutputStream(imageFile);
 	            bm.compress(Bitmap.CompressFormat.JPEG, 100, outStream);
 	            outStream.flush();
 	            outStream.close();
-	            saveSuccessful = true;
+	            saveSuccessful = index.commit(fileName, imageFile);
 			} 
 			catch (IOException e) 
 			{
 				e.printStackTrace();
+				imageFile.delete();
 			}
 		}
 		return saveSuccessful;
 	}
 	
+	/**
+	 * 解码网络流，同时把原始数据写入缓存文件，不再把解码后的Bitmap重新压缩。
+	 * 缓存中保存原图，先解析宽高按2的幂缩小解码，返回的Bitmap再按width缩放（width<=0时不缩放）
+	 */
+	public Bitmap decodeAndSaveStream(InputStream is, File dirFile, String url, int width)
+	{
+		if(is == null)return null;
+		String fileName = dirFile == null ? null : getFileName(dirFile, url);
+		DiskLruIndex index = fileName == null ? null : getIndex(dirFile);
+		File tmp = null;
+		WriteThroughInputStream tee = null;
+		InputStream source = is;
+		if(index != null)
+		{
+			tmp = index.newTempFile(fileName);
+			try {
+				tee = new WriteThroughInputStream(is, tmp);
+				source = tee;
+			} catch (IOException e) {
+				e.printStackTrace();
+				tmp.delete();
+			}
+		}
+		Bitmap bm = null;
+		// 图片头部超过MARK_LIMIT，不能reset，只保存文件，再从文件解码
+		boolean headerTooLarge = false;
+		boolean committed = false;
+		try {
+			BufferedInputStream in = new BufferedInputStream(source, 16 * 1024);
+			BitmapFactory.Options opts = new BitmapFactory.Options();
+			opts.inJustDecodeBounds = true;
+			in.mark(MARK_LIMIT);
+			BitmapFactory.decodeStream(in, null, opts);
+			try {
+				in.reset();
+			} catch (IOException e) {
+				headerTooLarge = true;
+			}
+			if(!headerTooLarge && opts.outWidth > 0 && opts.outHeight > 0)
+			{
+				opts.inJustDecodeBounds = false;
+				// 可修改的Bitmap才能放入BitmapPool复用
+				opts.inMutable = true;
+				opts.inSampleSize = BitmapPool.computeSampleSize(opts.outWidth, width);
+				bm = BitmapFactory.decodeStream(in, null, opts);
+			}
+			if((bm != null || headerTooLarge) && tee != null)
+			{
+				// 解码器不一定读到结尾
+				tee.drain();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				is.close();
+			} catch (IOException e) {
+			}
+			if(tee != null)
+			{
+				if((bm != null || headerTooLarge) && tee.complete())
+				{
+					committed = index.commit(fileName, tmp);
+				}
+				else
+				{
+					tee.abort();
+				}
+			}
+		}
+		if(bm == null && headerTooLarge && committed)
+		{
+			return getBitmapFromFileCache(dirFile, url, width);
+		}
+		return scaleToWidth(bm, width);
+	}
+	
+	/**
+	 * 按宽度等比缩放，原图不再使用（放回BitmapPool或回收）
+	 */
+	private Bitmap scaleToWidth(Bitmap bm, int width)
+	{
+		if(bm == null || width <= 0 || bm.getWidth() == width)return bm;
+		float ratio = ((float) width) / bm.getWidth();
+		Matrix matrix = new Matrix();
+		matrix.postScale(ratio, ratio);
+		Bitmap scaled = Bitmap.createBitmap(bm, 0, 0, bm.getWidth(), bm.getHeight(), matrix, true);
+		if(scaled != bm)
+		{
+			BitmapPool pool = mBitmapPool;
+			if(pool != null)
+			{
+				pool.put(bm);
+			}
+			else
+			{
+				bm.recycle();
+			}
+		}
+		return scaled;
+	}
+	
 	public Bitmap getBitmapFromFileCache(File dirFile, String url)
 	{
-		String fileName = convertUrlToFileName(url);
+		return getBitmapFromFileCache(dirFile, url, 0);
+	}
+	
+	/**
+	 * 读取缓存的图片并按width缩放（width<=0时不缩放）
+	 */
+	public Bitmap getBitmapFromFileCache(File dirFile, String url, int width)
+	{
+		String fileName = dirFile == null ? null : getFileName(dirFile, url);
 		Bitmap bm = null;
-		if(dirFile != null && fileName != null)
+		if(fileName != null)
 		{
-			File imageFile = new File(dirFile, fileName);
-			if(imageFile.exists())
+			DiskLruIndex index = getIndex(dirFile);
+			File imageFile = index.get(fileName);
+			if(imageFile != null)
 			{
-				String path =  imageFile.getPath();		
-	    		bm = BitmapFactory.decodeFile(path);
-	    		if(bm == null)
-	    		{
-	    			imageFile.delete();
-	    		}
-	    		else
-	    		{
-	    			long newModifiedTime = System.currentTimeMillis();
-	    			imageFile.setLastModified(newModifiedTime);
-	    		}
+				BitmapPool pool = mBitmapPool;
+				bm = pool != null ? pool.decodeFile(imageFile.getPath(), width) : decodeSampledFile(imageFile.getPath(), width);
+				if(bm == null)
+				{
+					index.remove(fileName);
+				}
 			}
-
 		}
-		return bm;
+		return scaleToWidth(bm, width);
+	}
+	
+	/**
+	 * 不复用Bitmap时的解码：先解析宽高，按2的幂缩小解码
+	 */
+	private static Bitmap decodeSampledFile(String path, int width)
+	{
+		BitmapFactory.Options opts = new BitmapFactory.Options();
+		opts.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, opts);
+		if(opts.outWidth <= 0 || opts.outHeight <= 0)return null;
+		opts.inJustDecodeBounds = false;
+		opts.inSampleSize = BitmapPool.computeSampleSize(opts.outWidth, width);
+		return BitmapFactory.decodeFile(path, opts);
 	}
 	
 	public InputStream getInputStreamFromFileCache(String fileName)
 	{
 		InputStream is = null;
 		File dirFile = getOrMakeFileDir(NATIVE_ORIGIN_FILE);
-		File imageFile = new File(dirFile, fileName);
-		if(imageFile.exists() && imageFile.isFile())
+		File imageFile = dirFile == null ? null : getIndex(dirFile).get(fileName);
+		if(imageFile != null)
 		{
 			try {
 				is = new FileInputStream(imageFile);
@@ -236,22 +520,32 @@ public class UnLimitedImageFileCache
 	}
 	
 	public boolean saveInputStreamToFile(InputStream is, String fileName)
+	{
+		return saveStreamToFile(is, getOrMakeFileDir(NATIVE_ORIGIN_FILE), fileName);
+	}
+	
+	/**
+	 * 把网络流原样保存到目录的缓存文件中
+	 */
+	public boolean saveStreamToFile(InputStream is, File dirFile, String url)
 	{
 		boolean successful = false;
 		FileOutputStream fos = null;
-		File dirFile = getOrMakeFileDir(NATIVE_ORIGIN_FILE);
-		if(dirFile != null && dirFile.exists())
+		String fileName = dirFile == null ? null : getFileName(dirFile, url);
+		if(fileName != null)
 		{
-			File imageFile = new File(dirFile, fileName);
+			DiskLruIndex index = getIndex(dirFile);
+			File imageFile = index.newTempFile(fileName);
 	        try {
-	        	imageFile.createNewFile();
 				fos = new FileOutputStream(imageFile);
-				byte[] buffer=new byte[1024];
+				byte[] buffer=new byte[8192];
 				int count=0;
 				while ((count=is.read(buffer))>=0) {
 						fos.write(buffer,0,count);
 				}
-				successful = true;
+				fos.close();
+				fos = null;
+				successful = index.commit(fileName, imageFile);
 			} catch (FileNotFoundException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
@@ -282,12 +576,16 @@ public class UnLimitedImageFileCache
 		if(fileName == null)return;
 		File srcDir = getOrMakeFileDir(isThum?ONLINE_THUMBNAIL_FILE:ONLINE_FILE);
 		File dstDir = getOrMakeFileDir(isThum?NATIVE_THUMBNAIL_FILE:NATIVE_FILE);
-		File srcImageFile = new File(srcDir, fileName);
-		File dstImageFile = new File(dstDir, fileName);
+		if(srcDir == null || dstDir == null)return;
+		// 在线目录里是url的哈希，本地目录里是url
+		File srcImageFile = getIndex(srcDir).get(getFileName(srcDir, fileName));
+		if(srcImageFile == null)return;
+		DiskLruIndex dstIndex = getIndex(dstDir);
+		String dstFileName = getFileName(dstDir, fileName);
+		File dstImageFile = dstIndex.newTempFile(dstFileName);
 		BufferedInputStream inBuff = null;
 	    BufferedOutputStream outBuff = null;
 	    try {
-			dstImageFile.createNewFile();
 			inBuff = new BufferedInputStream(new FileInputStream(srcImageFile));
 			outBuff = new BufferedOutputStream(new FileOutputStream(dstImageFile));
 			 byte[] b = new byte[1024 * 5];
@@ -297,6 +595,9 @@ public class UnLimitedImageFileCache
 	         }
 	            // 刷新此缓冲的输出流
 	            outBuff.flush();
+	            outBuff.close();
+	            outBuff = null;
+	            dstIndex.commit(dstFileName, dstImageFile);
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
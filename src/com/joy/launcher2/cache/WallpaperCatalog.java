@@ -0,0 +1,429 @@
+package com.joy.launcher2.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+import com.joy.launcher2.R;
+import com.joy.launcher2.network.handler.WallpaperHandler;
+import com.joy.launcher2.wallpaper.CategoryInfo;
+import com.joy.launcher2.wallpaper.WallpaperInfo;
+
+/**
+ * 壁纸列表、壁纸类别列表的本地文件（替代原来的json文本文件）。
+ * 二进制格式：文件头（魔数、版本、类型、条数）+ 每条记录的偏移 + 记录；
+ * 读取时映射到内存，{@link Catalog}按下标解析单条记录，打开壁纸界面时不再把整个文件解析成JSONObject。
+ * 写入先写临时文件再改名，异常退出时不会留下半截文件；旧版本的json文件第一次读取时转换为新格式
+ */
+public class WallpaperCatalog {
+
+	private static final String TAG = "WallpaperCatalog";
+	private static final boolean DEBUG = false;
+
+	private final static String NATIVE_WALLPAPER_FILE = "native_wallpaper";
+
+	public static final int TYPE_WALLPAPER = 1;
+	public static final int TYPE_CATEGORY = 2;
+
+	// "JWPC"
+	private static final int MAGIC = 0x4a575043;
+	private static final int VERSION = 1;
+	// 魔数、版本、类型、条数
+	private static final int HEADER_SIZE = 16;
+	private static final String SUFFIX_TMP = ".tmp";
+
+	private Context context;
+
+	public WallpaperCatalog(Context context) {
+		this.context = context;
+	}
+
+	/**
+	 * 映射到内存的列表文件，按下标读取记录，可以在多个线程中使用
+	 */
+	public static class Catalog {
+		private final ByteBuffer mBuffer;
+		private final int mType;
+		private final int mCount;
+
+		private Catalog(ByteBuffer buffer, int type, int count) {
+			mBuffer = buffer;
+			mType = type;
+			mCount = count;
+		}
+
+		/**
+		 * 检查文件头和偏移表，格式不对时返回null
+		 */
+		static Catalog open(ByteBuffer buffer, int type) {
+			if (buffer.limit() < HEADER_SIZE
+					|| buffer.getInt(0) != MAGIC
+					|| buffer.getInt(4) != VERSION
+					|| buffer.getInt(8) != type) {
+				return null;
+			}
+			int count = buffer.getInt(12);
+			if (count < 0 || count > (buffer.limit() - HEADER_SIZE) / 4) {
+				return null;
+			}
+			int recordsStart = HEADER_SIZE + count * 4;
+			for (int i = 0; i < count; i++) {
+				int offset = buffer.getInt(HEADER_SIZE + i * 4);
+				if (offset < recordsStart || offset >= buffer.limit()) {
+					return null;
+				}
+			}
+			return new Catalog(buffer, type, count);
+		}
+
+		public int getType() {
+			return mType;
+		}
+
+		public int getCount() {
+			return mCount;
+		}
+
+		/**
+		 * 第index条记录的读取位置，每次返回新的ByteBuffer，不影响其他线程
+		 */
+		private ByteBuffer record(int index) {
+			if (index < 0 || index >= mCount) {
+				throw new IndexOutOfBoundsException("index=" + index + " count=" + mCount);
+			}
+			ByteBuffer buffer = mBuffer.duplicate();
+			buffer.position(mBuffer.getInt(HEADER_SIZE + index * 4));
+			return buffer;
+		}
+
+		/**
+		 * 大图的壁纸信息：url为预览图，urls[0]为缩略图，urls[1]为原图。记录损坏时返回null
+		 */
+		public WallpaperInfo getWallpaper(int index) {
+			if (mType != TYPE_WALLPAPER) {
+				throw new IllegalStateException("not a wallpaper list");
+			}
+			try {
+				ByteBuffer buffer = record(index);
+				WallpaperInfo wi = new WallpaperInfo();
+				wi.id = buffer.getInt();
+				wi.size = buffer.getInt();
+				wi.wallpaperName = getString(buffer);
+				wi.url = getString(buffer);
+				wi.urls[0] = getString(buffer);
+				wi.urls[1] = getString(buffer);
+				return wi;
+			} catch (BufferUnderflowException e) {
+				if (DEBUG) Log.e(TAG, "---getWallpaper " + index + " : " + e);
+				return null;
+			}
+		}
+
+		/**
+		 * 记录损坏时返回null
+		 */
+		public CategoryInfo getCategory(int index) {
+			if (mType != TYPE_CATEGORY) {
+				throw new IllegalStateException("not a category list");
+			}
+			try {
+				ByteBuffer buffer = record(index);
+				CategoryInfo ci = new CategoryInfo();
+				ci.id = buffer.getInt();
+				ci.url = getString(buffer);
+				ci.name = getString(buffer);
+				ci.description = getString(buffer);
+				return ci;
+			} catch (BufferUnderflowException e) {
+				if (DEBUG) Log.e(TAG, "---getCategory " + index + " : " + e);
+				return null;
+			}
+		}
+
+		private static String getString(ByteBuffer buffer) {
+			int length = buffer.getInt();
+			if (length < 0) {
+				return null;
+			}
+			if (length > buffer.remaining()) {
+				throw new BufferUnderflowException();
+			}
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			try {
+				return new String(bytes, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new AssertionError(e);
+			}
+		}
+	}
+
+	public File getDirectoryFile(boolean isNative) {
+		String dirName = isNative?NATIVE_WALLPAPER_FILE:NATIVE_WALLPAPER_FILE;
+		return getDirectoryFile(dirName);
+	}
+
+	private File getDirectoryFile(String dirName) {
+		File dirCache = context.getCacheDir();
+		if (dirCache == null || !dirCache.exists()) {
+			return null;
+		}
+		File dirFile = new File(dirCache, dirName);
+		if (!dirFile.exists() && !dirFile.mkdirs()) {
+			return null;
+		}
+		return dirFile;
+	}
+
+	/**
+	 * 读取壁纸列表，文件不存在或损坏时返回null
+	 */
+	public Catalog readWallpapers(String fileName, File dirFile) {
+		return read(fileName, dirFile, TYPE_WALLPAPER);
+	}
+
+	/**
+	 * 读取壁纸类别列表，文件不存在或损坏时返回null
+	 */
+	public Catalog readCategories(String fileName, File dirFile) {
+		return read(fileName, dirFile, TYPE_CATEGORY);
+	}
+
+	private Catalog read(String fileName, File dirFile, int type) {
+		if (dirFile == null) {
+			return null;
+		}
+		File file = new File(dirFile, fileName);
+		if (!file.isFile()) {
+			return null;
+		}
+		ByteBuffer buffer;
+		try {
+			buffer = map(file);
+		} catch (IOException e) {
+			if (DEBUG) Log.e(TAG, "---read " + file + " : " + e);
+			return null;
+		}
+		Catalog catalog = Catalog.open(buffer, type);
+		if (catalog == null) {
+			catalog = migrate(buffer, file, fileName, dirFile, type);
+		}
+		return catalog;
+	}
+
+	/**
+	 * 只读映射，映射在通道关闭后仍然有效
+	 */
+	private static ByteBuffer map(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * 旧版本保存的json文件：解析一次并改写为新格式，不是json时删除
+	 */
+	private Catalog migrate(ByteBuffer buffer, File file, String fileName, File dirFile, int type) {
+		JSONObject json = null;
+		try {
+			byte[] bytes = new byte[buffer.limit()];
+			buffer.get(bytes);
+			json = new JSONObject(new String(bytes, "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			if (DEBUG) Log.e(TAG, "---migrate " + file + " : " + e);
+		} catch (JSONException e) {
+			if (DEBUG) Log.e(TAG, "---migrate " + file + " : " + e);
+		}
+		if (json == null) {
+			file.delete();
+			return null;
+		}
+		if (DEBUG) Log.i(TAG, "---migrate " + file);
+		if (type == TYPE_WALLPAPER) {
+			ArrayList<WallpaperInfo> wis = new ArrayList<WallpaperInfo>();
+			WallpaperHandler.wallpaperList(wis, new ArrayList<WallpaperInfo>(), json, false);
+			return writeWallpapers(wis, fileName, dirFile);
+		}
+		List<CategoryInfo> cis = new ArrayList<CategoryInfo>();
+		WallpaperHandler.wallpaperCategoryList(cis, json);
+		return writeCategories(cis, fileName, dirFile);
+	}
+
+	/**
+	 * 保存壁纸列表（大图的壁纸信息，见{@link Catalog#getWallpaper(int)}）
+	 * @return 新列表，保存失败时也可以使用
+	 */
+	public Catalog writeWallpapers(List<WallpaperInfo> wis, String fileName, File dirFile) {
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(records);
+		int[] offsets = new int[wis.size()];
+		int recordsStart = HEADER_SIZE + offsets.length * 4;
+		try {
+			for (int i = 0; i < offsets.length; i++) {
+				WallpaperInfo wi = wis.get(i);
+				offsets[i] = recordsStart + out.size();
+				out.writeInt(wi.id);
+				out.writeInt(wi.size);
+				writeString(out, wi.wallpaperName);
+				writeString(out, wi.url);
+				writeString(out, wi.urls[0]);
+				writeString(out, wi.urls[1]);
+			}
+		} catch (IOException e) {
+			// 写入内存不会出错
+			throw new AssertionError(e);
+		}
+		return write(TYPE_WALLPAPER, offsets, records, fileName, dirFile);
+	}
+
+	/**
+	 * 保存壁纸类别列表（不保存图片）
+	 * @return 新列表，保存失败时也可以使用
+	 */
+	public Catalog writeCategories(List<CategoryInfo> cis, String fileName, File dirFile) {
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(records);
+		int[] offsets = new int[cis.size()];
+		int recordsStart = HEADER_SIZE + offsets.length * 4;
+		try {
+			for (int i = 0; i < offsets.length; i++) {
+				CategoryInfo ci = cis.get(i);
+				offsets[i] = recordsStart + out.size();
+				out.writeInt(ci.id);
+				writeString(out, ci.url);
+				writeString(out, ci.name);
+				writeString(out, ci.description);
+			}
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return write(TYPE_CATEGORY, offsets, records, fileName, dirFile);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private Catalog write(int type, int[] offsets, ByteArrayOutputStream records, String fileName, File dirFile) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(HEADER_SIZE + offsets.length * 4 + records.size());
+		DataOutputStream out = new DataOutputStream(bos);
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(type);
+			out.writeInt(offsets.length);
+			for (int offset : offsets) {
+				out.writeInt(offset);
+			}
+			records.writeTo(out);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		byte[] bytes = bos.toByteArray();
+		if (dirFile != null) {
+			saveAtomically(bytes, new File(dirFile, fileName));
+		}
+		return Catalog.open(ByteBuffer.wrap(bytes), type);
+	}
+
+	/**
+	 * 先写临时文件再改名，正在读取旧文件（已映射）的线程不受影响
+	 */
+	private static boolean saveAtomically(byte[] bytes, File file) {
+		File tmp = new File(file.getPath() + SUFFIX_TMP);
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(tmp);
+			fos.write(bytes);
+			fos.close();
+			fos = null;
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					tmp.delete();
+					return false;
+				}
+			}
+			return true;
+		} catch (IOException e) {
+			if (DEBUG) Log.e(TAG, "---saveAtomically " + file + " : " + e);
+			tmp.delete();
+			return false;
+		} finally {
+			if (fos != null) {
+				try {
+					fos.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * 程序自带的壁纸（资源中的图片，url为资源id）
+	 */
+	public void loadNativeWallpaper(List<WallpaperInfo> items) {
+		final Resources resources = context.getResources();
+		final String packageName = resources.getResourcePackageName(R.array.wallpapers);
+		int size = addWallpapers(items, resources, packageName, R.array.wallpapers);
+		if (size <= 0) {
+			addWallpapers(items, resources, packageName, R.array.extra_wallpapers);
+		}
+	}
+
+	private int addWallpapers(List<WallpaperInfo> items, Resources resources, String packageName, int list) {
+		final String[] extras = resources.getStringArray(list);
+		int size = 0;
+		for (String extra : extras) {
+			String imageName = extra;
+			String thumbName = extra + "_small";
+			String previewbName = extra + "_preview";
+			int res = resources.getIdentifier(extra, "drawable", packageName);
+			if (res != 0) {
+				final int thumbRes = resources.getIdentifier(thumbName,
+						"drawable", packageName);
+				final int previewRes = resources.getIdentifier(previewbName,
+						"drawable", packageName);
+
+				if (thumbRes != 0 && previewRes != 0) {
+					size ++;
+					WallpaperInfo wi = new WallpaperInfo();
+					wi.id = Integer.MIN_VALUE;
+					wi.size = 0;
+					wi.wallpaperName = imageName;
+					wi.url = Integer.toString(previewRes);
+					wi.urls[0] = Integer.toString(thumbRes);
+					wi.urls[1] = Integer.toString(res);
+					items.add(wi);
+				}
+			}
+		}
+		return size;
+	}
+}
@@ -1,5 +1,8 @@
 package com.joy.launcher2.download;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -25,8 +28,11 @@ public class DownLoadDBHelper {
 	//数据表名
 	private static final String DATABASE_TABLE = "downinfo111";
 
-	//数据库版本
-	private static final int DATABASE_VERSION = 1;
+	//分段下载的进度表
+	private static final String SEGMENT_TABLE = "segment";
+
+	//数据库版本（2：增加分段表）
+	private static final int DATABASE_VERSION = 2;
 
 	//id 指定对于的apk
 	private static final String ID = "id";
@@ -45,29 +51,69 @@ public class DownLoadDBHelper {
 
 	//文件已下载大小
 	private static final String COMPLETE_SIZE = "complete_size";
+
+	//分段序号、开始、结束、已下载到的位置、是否完成
+	private static final String SEGMENT_INDEX = "segment_index";
+	private static final String SEGMENT_START = "segment_start";
+	private static final String SEGMENT_END = "segment_end";
+	private static final String SEGMENT_POSITION = "segment_position";
+	private static final String SEGMENT_FINISHED = "segment_finished";
  
 	private final Context context;
  
 	private DatabaseHelper mDBHelper;
  
 	private SQLiteDatabase db;
+
+	// 下载中的进度先放在这里，定时或状态变化时一起写入
+	private final ProgressJournal mJournal;
 	
 	static DownLoadDBHelper dbHelper;
 	public DownLoadDBHelper(Context ctx) {
+		this(ctx, DATABASE_NAME);
+	}
+
+	private DownLoadDBHelper(Context ctx, String name) {
 		context = ctx;
-		mDBHelper = new DatabaseHelper(context);
+		mDBHelper = new DatabaseHelper(context, name);
+		mJournal = new ProgressJournal(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
 	}
 
-	static public DownLoadDBHelper getInstances() {
+	private static String getInfoKey(int id) {
+		return "info:" + id + ":";
+	}
+
+	private static String getSegmentKey(int id) {
+		return "segment:" + id + ":";
+	}
+
+	static public synchronized DownLoadDBHelper getInstances() {
 		
 		if (dbHelper == null) {
 			dbHelper = new DownLoadDBHelper(LauncherApplication.mContext);
 		}
 		return dbHelper;
 	}
+
+	/**
+	 * 测试用：之后getInstances()返回使用数据库name（如临时目录中的绝对路径）的实例，传null恢复默认数据库。
+	 * 切换前写入并关闭当前的数据库
+	 */
+	static public synchronized void setDatabaseName(String name) {
+		if (dbHelper != null) {
+			dbHelper.close();
+		}
+		dbHelper = name == null ? null : new DownLoadDBHelper(LauncherApplication.mContext, name);
+	}
+
 	private static class DatabaseHelper extends SQLiteOpenHelper {
-		public DatabaseHelper(Context context) {
-			super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		public DatabaseHelper(Context context, String name) {
+			super(context, name, null, DATABASE_VERSION);
 		}
 
 		@Override
@@ -84,36 +130,72 @@ public class DownLoadDBHelper {
 					+");";
 		 
 			db.execSQL(DATABASE_CREATE);
+			createSegmentTable(db);
+		}
+
+		private void createSegmentTable(SQLiteDatabase db) {
+			db.execSQL("create table " + SEGMENT_TABLE + " (_id INTEGER PRIMARY KEY, "
+					+ ID + " INTEGER, "
+					+ SEGMENT_INDEX + " INTEGER, "
+					+ SEGMENT_START + " INTEGER, "
+					+ SEGMENT_END + " INTEGER, "
+					+ SEGMENT_POSITION + " INTEGER, "
+					+ SEGMENT_FINISHED + " INTEGER "
+					+ ");");
 		}
 
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 			// TODO Auto-generated method stub
+			if (oldVersion == 1) {
+				// 保留已有的下载记录
+				createSegmentTable(db);
+				return;
+			}
 			db.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE);
+			db.execSQL("DROP TABLE IF EXISTS " + SEGMENT_TABLE);
 			onCreate(db);
 		}
 	}
 
 	/**
-	 * 打开数据库
+	 * 打开数据库，打开后一直保持打开，不再每次操作都打开、关闭
 	 * 
 	 * @return
 	 * @throws SQLException
 	 */
 	public synchronized SQLiteDatabase open() throws SQLException {
 		
-		db = mDBHelper.getWritableDatabase();
+		if (db == null || !db.isOpen()) {
+			db = mDBHelper.getWritableDatabase();
+		}
 
 		return db;
 	}
 
 	/**
-	 * 关闭数据库
+	 * 关闭数据库，关闭前写入还没写入的进度
 	 */
 	public synchronized void close() throws SQLException {
 		if(isDebug) Log.i(TAG, "-----db = "+db);
 		if(isDebug) Log.i(TAG, "-----mDBHelper = "+mDBHelper);
+		flush();
 		if(db != null) db.close();
+		db = null;
+	}
+
+	/**
+	 * 把还没写入的进度在一个事务中写入数据库（定时调用，下载暂停、完成时也调用）
+	 */
+	public synchronized void flush() {
+		if (mJournal.isEmpty()) {
+			return;
+		}
+		try {
+			mJournal.flush(open());
+		} catch (SQLException e) {
+			Log.e(TAG, "---flush error " + e);
+		}
 	}
 
 	/**
@@ -121,6 +203,7 @@ public class DownLoadDBHelper {
 	 */
 	public synchronized void insert(DownloadInfo info) {
 
+		flush();
 		open();
 		ContentValues initialValues = new ContentValues();
 		initialValues.put(ID, info.getId());
@@ -131,8 +214,6 @@ public class DownLoadDBHelper {
 		initialValues.put(COMPLETE_SIZE, info.getCompletesize());
 		
 		db.insert(DATABASE_TABLE, null, initialValues);
-		
-		close();
 	}
 	/**
 	 * 删除数据,根据指定id删除
@@ -145,16 +226,85 @@ public class DownLoadDBHelper {
 	 */
 	public synchronized void delete(int id) {
 
+		 mJournal.remove(getInfoKey(id));
+		 mJournal.remove(getSegmentKey(id));
 		 open();
 		 db.delete(DATABASE_TABLE, ID + "=" + id, null);
-		 close();
+		 db.delete(SEGMENT_TABLE, ID + "=" + id, null);
+	}
+
+	/**
+	 * 保存一次下载的所有分段（替换原来的）
+	 */
+	public synchronized void insertSegments(int id, List<DownloadSegment> segments) {
+		mJournal.remove(getSegmentKey(id));
+		open();
+		db.beginTransaction();
+		try {
+			db.delete(SEGMENT_TABLE, ID + "=" + id, null);
+			for (DownloadSegment segment : segments) {
+				ContentValues values = new ContentValues();
+				values.put(ID, id);
+				values.put(SEGMENT_INDEX, segment.getIndex());
+				values.put(SEGMENT_START, segment.getStart());
+				values.put(SEGMENT_END, segment.getEnd());
+				values.put(SEGMENT_POSITION, segment.getPosition());
+				values.put(SEGMENT_FINISHED, segment.isFinished() ? 1 : 0);
+				db.insert(SEGMENT_TABLE, null, values);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * 更新一个分段的进度（延迟写入）
+	 */
+	public void updateSegment(int id, DownloadSegment segment) {
+		ContentValues values = new ContentValues();
+		values.put(SEGMENT_END, segment.getEnd());
+		values.put(SEGMENT_POSITION, segment.getPosition());
+		values.put(SEGMENT_FINISHED, segment.isFinished() ? 1 : 0);
+		mJournal.put(getSegmentKey(id) + segment.getIndex(), SEGMENT_TABLE,
+				ID + "=" + id + " AND " + SEGMENT_INDEX + "=" + segment.getIndex(), values, false);
+	}
+
+	/**
+	 * 删除分段记录（改为整个文件下载时）
+	 */
+	public synchronized void deleteSegments(int id) {
+		mJournal.remove(getSegmentKey(id));
+		open();
+		db.delete(SEGMENT_TABLE, ID + "=" + id, null);
 	}
 
 	/**
-	 * 更改数据，根据指定id更改
+	 * 根据id获取分段，按序号排列，没有分段时返回空列表
 	 */
-	public synchronized void update(DownloadInfo info) {
+	public synchronized List<DownloadSegment> getSegments(int id) {
+		List<DownloadSegment> segments = new ArrayList<DownloadSegment>();
+		flush();
 		open();
+		Cursor cur = db.query(SEGMENT_TABLE, new String[] { SEGMENT_INDEX,
+				SEGMENT_START, SEGMENT_END, SEGMENT_POSITION, SEGMENT_FINISHED },
+				ID + "=" + id, null, null, null, SEGMENT_INDEX);
+		if (cur != null) {
+			while (cur.moveToNext()) {
+				DownloadSegment segment = new DownloadSegment(cur.getInt(0), cur.getInt(1), cur.getInt(2));
+				segment.setPosition(cur.getInt(3));
+				segment.setFinished(cur.getInt(4) != 0);
+				segments.add(segment);
+			}
+			cur.close();
+		}
+		return segments;
+	}
+
+	/**
+	 * 更改数据，根据指定id更改（延迟写入，同一个id只写最新的）
+	 */
+	public void update(DownloadInfo info) {
 		ContentValues initialValues = new ContentValues();
 		initialValues.put(ID, info.getId());
 		initialValues.put(NAME, info.getFilename());
@@ -163,12 +313,13 @@ public class DownLoadDBHelper {
 		initialValues.put(FILE_SIZE, info.getFilesize());
 		initialValues.put(COMPLETE_SIZE, info.getCompletesize());
 		
-		db.update(DATABASE_TABLE, initialValues, ID + "="+ info.getId(), null);
-		close();
+		mJournal.put(getInfoKey(info.getId()), DATABASE_TABLE, ID + "="+ info.getId(), initialValues, false);
 	}
 
 	public synchronized Cursor getAll() {
 
+		flush();
+		open();
 		Cursor cur = db.query(DATABASE_TABLE, null, null, null, null, null,null);
 		return cur;
 	}
@@ -180,6 +331,7 @@ public class DownLoadDBHelper {
 	 */
 	public synchronized DownloadInfo get(int id){
 		DownloadInfo info = null;
+		flush();
 		open();
 		Cursor cur = db.query(true, DATABASE_TABLE, new String[] { ID,
 				NAME, LOCAL_NAME, URL , FILE_SIZE, COMPLETE_SIZE },
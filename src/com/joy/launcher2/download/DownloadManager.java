@@ -5,9 +5,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import android.R.integer;
 import android.content.Context;
@@ -37,6 +41,20 @@ public class DownloadManager {
 	final String TAG = "DownloadManager";
 	
 	private ExecutorService pool = Executors.newFixedThreadPool(2);
+	// 分段下载时每一段一个线程
+	private ExecutorService segmentPool = Executors.newCachedThreadPool();
+
+	// 默认分段数，1表示不分段
+	private static final int DEFAULT_SEGMENT_COUNT = 3;
+	// 每段最小的字节数，文件小于两段时不分段
+	private static final int MIN_SEGMENT_SIZE = 512 * 1024;
+	// 每下载多少字节保存一次进度
+	private static final int SAVE_INTERVAL = 50 * 1024;
+	private int mSegmentCount = DEFAULT_SEGMENT_COUNT;
+	// 所有下载同时使用的连接数，小于ClientHttp每个主机的连接数（4），给其他请求留出连接；
+	// 超过时分段等待，不会因为连接池超时而失败
+	private static final int MAX_DOWNLOAD_CONNECTIONS = 3;
+	private final Semaphore mConnections = new Semaphore(MAX_DOWNLOAD_CONNECTIONS, true);
 
 	public static Map<String, DownLoadTask> map = new HashMap<String, DownLoadTask>();
 
@@ -63,10 +81,32 @@ public class DownloadManager {
 
 	public static boolean isPause = false;
 
+	// 测试用：下载目录，null时使用Constants.DOWNLOAD_APK_DIR
+	private static volatile String sDownloadDir;
+
+	/**
+	 * 测试用：下载到dir（如临时目录，不需要SD卡），传null恢复默认目录
+	 */
+	public static void setDownloadDir(String dir) {
+		sDownloadDir = dir;
+	}
+
+	/**
+	 * 新建下载的分段数：服务器支持断点（返回Content-Range）时把文件分成count段同时下载，
+	 * 每段的进度单独保存，断点续传时每段从自己的位置继续。1表示不分段
+	 */
+	public void setSegmentCount(int count) {
+		mSegmentCount = Math.max(1, count);
+	}
+
 	public void createTask(View view,DownloadInfo dInfo,CallBack callback,boolean secretly) {
 		
-		if (!Util.hasSdcard()) {
-			return;
+		String downloadDir = sDownloadDir;
+		if (downloadDir == null) {
+			if (!Util.hasSdcard()) {
+				return;
+			}
+			downloadDir = Constants.DOWNLOAD_APK_DIR;
 		}
 		if (dInfo == null) {
 			return;
@@ -83,7 +123,7 @@ public class DownloadManager {
 		//completesize == 0是新建下载
 		if (dInfo.getCompletesize() == 0) {
 			// 检查本地是否有重名了的文件
-			File localfile = new File(Constants.DOWNLOAD_APK_DIR + "/" + dInfo.getFilename() + ".apk");
+			File localfile = new File(downloadDir + "/" + dInfo.getFilename() + ".apk");
 			localfile = Util.getCleverFileName(localfile);
 			dInfo.setLocalname(localfile.getName());
 		}
@@ -91,11 +131,11 @@ public class DownloadManager {
 		dInfo.setView(view);
 
 		// 创建线程开始下载
-		File file = new File(Constants.DOWNLOAD_APK_DIR + "/"+ dInfo.getLocalname());
+		File file = new File(downloadDir + "/"+ dInfo.getLocalname());
 
 		RandomAccessFile rf = null;
 		try {
-			rf = new RandomAccessFile(file, "rwd");
+			rf = new RandomAccessFile(file, "rw");
 			rf.setLength(dInfo.getFilesize()*1024);
 			rf.close();
 		} catch (Exception e) {
@@ -131,8 +171,280 @@ public class DownloadManager {
 			return isSecretly;
 		}
 		public void run() {
+			try {
+				List<DownloadSegment> segments = prepareSegments();
+				if (segments == null || !downloadSegments(segments)) {
+					downloadSingle();
+				}
+			} catch (Exception e) {
+				Log.i(TAG, "DownLoadTask error " + e);
+			} finally {
+				// end.countDown();
+				if(isDebug) Log.i(TAG, "download over");
+
+				callback.downloadUpdate();
+				if (downinfo.getCompletesize() >= downinfo.getFilesize()) {
+					if(isDebug) Log.i(TAG, "download finsh");
+					DownLoadDBHelper.getInstances().update(downinfo);
+					if(callback != null){
+						callback.downloadSucceed();
+					}
+				}else{
+					callback.downloadFailed();
+				}
+				// 暂停、失败、完成时立即写入进度
+				DownLoadDBHelper.getInstances().flush();
+				
+				map.remove(String.valueOf(downinfo.getId()));
+			}
+		}
+
+		/**
+		 * 继续上次的分段；新下载的大文件按mSegmentCount分段并保存。返回null时整个文件一次下载
+		 */
+		private List<DownloadSegment> prepareSegments() {
+			int id = downinfo.getId();
+			List<DownloadSegment> segments = DownLoadDBHelper.getInstances().getSegments(id);
+			if (downinfo.getCompletesize() > 0) {
+				// 继续上次的分段；上次用一个连接下载的，继续用一个连接
+				return segments.isEmpty() ? null : segments;
+			}
+			// completesize为0时createTask新建了文件，以前的分段作废
+			segments.clear();
+			int length = downinfo.getFilesize() * 1024;
+			int count = Math.min(mSegmentCount, length / MIN_SEGMENT_SIZE);
+			if (count <= 1) {
+				return null;
+			}
+			for (int i = 0; i < count; i++) {
+				int start = (int) ((long) length * i / count);
+				// 文件大小以KB为单位，不精确，最后一段下载到文件结尾
+				int end = i == count - 1 ? -1 : (int) ((long) length * (i + 1) / count) - 1;
+				segments.add(new DownloadSegment(i, start, end));
+			}
+			DownLoadDBHelper.getInstances().insertSegments(id, segments);
+			if(isDebug) Log.i(TAG, "segments:" + segments);
+			return segments;
+		}
+
+		/**
+		 * 各分段同时下载，全部结束后返回。
+		 * @return false表示服务器不支持断点，分段记录已删除，需要改为整个文件下载
+		 */
+		private boolean downloadSegments(final List<DownloadSegment> segments) throws InterruptedException {
+			DownloadSegment first = null;
+			boolean started = false;
+			for (DownloadSegment segment : segments) {
+				if (!segment.isFinished() && first == null) {
+					first = segment;
+				}
+				started |= segment.getCompleteSize() > 0;
+			}
+			DownloadSegment last = segments.get(segments.size() - 1);
+			// 文件的实际长度（数据库中的文件大小以KB为单位，不精确），全部完成时文件必须正好这么长
+			long total = last.getEnd() + 1;
+			InputStream firstStream = null;
+			if (first != null) {
+				if (!acquireConnection()) {
+					// 暂停
+					return true;
+				}
+				// 先打开一段，确认服务器支持断点再打开其余的
+				long[] totalLength = new long[1];
+				firstStream = mService.getDownLoadRangeInputStream(downinfo.getUrl(), first.getPosition(), first.getEnd(), totalLength);
+				if (firstStream != null && totalLength[0] <= 0) {
+					// 服务器没有返回总长度，无法确认最后一段是否完整
+					try {
+						firstStream.close();
+					} catch (IOException e) {
+					}
+					firstStream = null;
+				}
+				if (firstStream == null) {
+					mConnections.release();
+					if (started) {
+						// 以前支持断点，当作网络错误，保留进度
+						return true;
+					}
+					if(isDebug) Log.i(TAG, "range not supported, download the whole file");
+					DownLoadDBHelper.getInstances().deleteSegments(downinfo.getId());
+					return false;
+				}
+				total = totalLength[0];
+				synchronized (segments) {
+					if (last.getEnd() == -1) {
+						// 最后一段下载到总长度为止，连接提前断开时不会当作读到了结尾
+						last.setEnd((int) total - 1);
+						DownLoadDBHelper.getInstances().updateSegment(downinfo.getId(), last);
+					}
+				}
+			}
+
+			callback.downloadUpdate();
+			final CountDownLatch end = new CountDownLatch(segments.size());
+			for (final DownloadSegment segment : segments) {
+				if (segment.isFinished()) {
+					end.countDown();
+					continue;
+				}
+				final InputStream is = segment == first ? firstStream : null;
+				segmentPool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							downloadSegment(segments, segment, is);
+						} finally {
+							end.countDown();
+						}
+					}
+				});
+			}
+			end.await();
+
+			boolean finished = total > 0 && last.getEnd() + 1 == total;
+			for (DownloadSegment segment : segments) {
+				finished &= segment.isFinished();
+			}
+			if (finished) {
+				// 预先设置的长度按KB计算，截到实际的结尾
+				RandomAccessFile rf = null;
+				try {
+					rf = new RandomAccessFile(file, "rw");
+					rf.setLength(total);
+				} catch (IOException e) {
+					Log.i(TAG, "DownLoadTask setLength error " + e);
+				} finally {
+					if (rf != null) {
+						try {
+							rf.close();
+						} catch (IOException e) {
+						}
+					}
+				}
+				if (file.length() == total) {
+					downinfo.setCompletesize(downinfo.getFilesize());
+					DownLoadDBHelper.getInstances().deleteSegments(downinfo.getId());
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * 取得一个下载连接，没有空闲时等待，暂停时返回false
+		 */
+		private boolean acquireConnection() {
+			try {
+				while (!isPause) {
+					if (mConnections.tryAcquire(1, TimeUnit.SECONDS)) {
+						return true;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+
+		/**
+		 * 在分段线程中下载一段，is为null时自己取得连接并发请求；不为null时连接已经取得
+		 */
+		private void downloadSegment(List<DownloadSegment> segments, DownloadSegment segment, InputStream is) {
+			DownloadSink sink = null;
+			boolean acquired = is != null;
+			try {
+				if (is == null) {
+					if (!acquireConnection()) {
+						return;
+					}
+					acquired = true;
+					is = mService.getDownLoadRangeInputStream(downinfo.getUrl(), segment.getPosition(), segment.getEnd(), null);
+					if (is == null) {
+						return;
+					}
+				}
+				sink = new DownloadSink(file, segment.getPosition());
+
+				byte[] b = new byte[1024 * 8];
+				int len = -1;
+				int pool = 0;
+				while ((len = is.read(b)) != -1) {
+					if (isPause) {
+						return;
+					}
+					int position = segment.getPosition();
+					if (segment.getEnd() != -1 && position + len > segment.getEnd() + 1) {
+						// 只写本段的数据
+						len = segment.getEnd() + 1 - position;
+					}
+					sink.write(b, 0, len);
+					setSegmentPosition(segments, segment, position + len);
+
+					pool += len;
+					if (pool >= SAVE_INTERVAL) {
+						// 数据写到存储上之后才保存进度
+						sink.checkpoint();
+						saveSegment(segment);
+						pool = 0;
+						callback.downloadUpdate();// 刷新一次
+					}
+					if (segment.isFinished()) {
+						break;
+					}
+				}
+				// 每段的end都已确定，连接提前断开时（读到-1但没到end）这一段没有完成，保留进度
+			} catch (IOException e) {
+				Log.i(TAG, "DownLoadTask segment " + segment.getIndex() + " error " + e);
+			} finally {
+				if (sink != null) {
+					try {
+						sink.close();
+					} catch (IOException e) {
+						// 最后一次checkpoint之后的数据可能没有写入，退回到checkpoint
+						setSegmentPosition(segments, segment, (int) sink.getCheckpointPosition());
+						segment.setFinished(false);
+					}
+				}
+				saveSegment(segment);
+				if (is != null) {
+					try {
+						is.close();
+					} catch (IOException e) {
+					}
+				}
+				if (acquired) {
+					mConnections.release();
+				}
+			}
+		}
+
+		/**
+		 * 更新分段进度和总进度；全部完成前总进度不会达到文件大小（文件大小不精确）
+		 */
+		private void setSegmentPosition(List<DownloadSegment> segments, DownloadSegment segment, int position) {
+			synchronized (segments) {
+				segment.setPosition(position);
+				long total = 0;
+				for (DownloadSegment s : segments) {
+					total += s.getCompleteSize();
+				}
+				downinfo.setCompletesize((int) Math.min(total / 1024, downinfo.getFilesize() - 1));
+			}
+		}
+
+		private void saveSegment(DownloadSegment segment) {
+			DownLoadDBHelper.getInstances().updateSegment(downinfo.getId(), segment);
+			DownLoadDBHelper.getInstances().update(downinfo);
+		}
+
+		/**
+		 * 用一个连接下载整个文件（服务器支持断点时从已下载的位置继续）
+		 */
+		private void downloadSingle() {
+			if (!acquireConnection()) {
+				return;
+			}
 			InputStream is = null;
-			RandomAccessFile randomAccessFile = null;
+			DownloadSink sink = null;
 			try {
 				int startPos = downinfo.getCompletesize()*1024;
 				int endPos = downinfo.getFilesize()*1024;
@@ -140,8 +452,6 @@ public class DownloadManager {
 				if (is == null) {
 					return;
 				}
-				randomAccessFile = new RandomAccessFile(file, "rwd");
-				
 				boolean isBreakPoint = mService.getIsBreakPoint(downinfo.getUrl());
 				if(!isBreakPoint)
 				{
@@ -149,7 +459,7 @@ public class DownloadManager {
 					startPos = 0;
 				}
 				// 从断点处 继续下载（初始为0）
-				randomAccessFile.seek(startPos);
+				sink = new DownloadSink(file, startPos);
 				
 				final int length = 1024*8;
 				byte[] b = new byte[length];
@@ -164,51 +474,39 @@ public class DownloadManager {
 						return;
 					}
 
-					randomAccessFile.write(b, 0, len);
+					sink.write(b, 0, len);
 					
 					pool += len;
-					if (pool >= 50 * 1024) { // 50kb写一次数据库
+					if (pool >= SAVE_INTERVAL) { // 50kb写一次数据库
 						if(isDebug) Log.i(TAG, "--downloading--");
-						DownLoadDBHelper.getInstances().update(downinfo); //暂不支持断点下载
+						// 数据写到存储上之后才保存进度
+						sink.checkpoint();
+						DownLoadDBHelper.getInstances().update(downinfo);
 						pool = 0;
 						callback.downloadUpdate();// 刷新一次
 					}
 					tempLen += len;
 					downinfo.setCompletesize(tempLen/1024);
-					if (pool != 0) {
-						DownLoadDBHelper.getInstances().update(downinfo);/// 暂不支持断点下载
-					}
 				}
 			} catch (Exception e) {
 				Log.i(TAG, "DownLoadTask error " + e);
 			} finally {
-				// end.countDown();
-				if(isDebug) Log.i(TAG, "download over");
-
-				callback.downloadUpdate();
-				if (downinfo.getCompletesize() >= downinfo.getFilesize()) {
-					if(isDebug) Log.i(TAG, "download finsh");
-					DownLoadDBHelper.getInstances().update(downinfo);
-					if(callback != null){
-						callback.downloadSucceed();
-					}
-				}else{
-					callback.downloadFailed();
-				}
-				
-				map.remove(String.valueOf(downinfo.getId()));
-				if (is != null) {
+				if (sink != null) {
 					try {
-						is.close();
+						sink.close();
 					} catch (IOException e) {
+						// 最后一次checkpoint之后的数据可能没有写入，退回到checkpoint
+						downinfo.setCompletesize((int) (sink.getCheckpointPosition() / 1024));
 					}
+					DownLoadDBHelper.getInstances().update(downinfo);
 				}
-				if (randomAccessFile != null) {
+				if (is != null) {
 					try {
-						randomAccessFile.close();
+						is.close();
 					} catch (IOException e) {
 					}
 				}
+				mConnections.release();
 			}
 		}
 	}
@@ -235,5 +533,7 @@ public class DownloadManager {
 
 	public void onDestroy() {
 		pool.shutdown();
+		segmentPool.shutdown();
+		DownLoadDBHelper.getInstances().flush();
 	}
 }
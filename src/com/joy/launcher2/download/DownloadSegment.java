@@ -0,0 +1,68 @@
+package com.joy.launcher2.download;
+
+/**
+ * 分段下载中的一段：[start, end]，end包括在内，-1表示到文件结尾（最后一段）。
+ * position为下一个要写入的位置，保存在数据库中，断点续传时每段从自己的position继续
+ * @author wanghao
+ *
+ */
+public class DownloadSegment {
+
+	private int index;// 第几段
+	private int start;// 开始位置
+	private int end;// 结束位置（包括），-1表示到文件结尾
+	private int position;// 已下载到的位置
+	private boolean finished;// 以前的版本保存的完成标记，现在由position和end判断
+
+	public DownloadSegment(int index, int start, int end) {
+		this.index = index;
+		this.start = start;
+		this.end = end;
+		this.position = start;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public void setEnd(int end) {
+		this.end = end;
+	}
+
+	public int getPosition() {
+		return position;
+	}
+
+	public void setPosition(int position) {
+		this.position = position;
+	}
+
+	/**
+	 * 已下载的字节数
+	 */
+	public int getCompleteSize() {
+		return position - start;
+	}
+
+	public boolean isFinished() {
+		return finished || (end != -1 && position > end);
+	}
+
+	public void setFinished(boolean finished) {
+		this.finished = finished;
+	}
+
+	@Override
+	public String toString() {
+		return "DownloadSegment [index=" + index + ", start=" + start + ", end=" + end
+				+ ", position=" + position + ", finished=" + finished + "]";
+	}
+}
@@ -0,0 +1,93 @@
+package com.joy.launcher2.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 下载文件的写入：数据先放进一块直接内存缓冲，满了再按位置写入FileChannel，
+ * 只在{@link #checkpoint()}（保存进度时）强制写到存储上，代替"rwd"模式下每次write都同步写盘。
+ * 先checkpoint再把进度存入数据库，数据库里的进度不会超过已经写到存储上的数据，断点续传是安全的。
+ * 不是线程安全的，每个下载线程（分段）使用自己的DownloadSink
+ * @author wanghao
+ *
+ */
+public class DownloadSink {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private final ByteBuffer mBuffer;
+	// 缓冲中第一个字节在文件中的位置
+	private long mPosition;
+	// 最后一次checkpoint时的位置，之前的数据已经写到存储上
+	private long mCheckpointPosition;
+
+	/**
+	 * @param position 开始写入的位置
+	 */
+	public DownloadSink(File file, long position) throws IOException {
+		mFile = new RandomAccessFile(file, "rw");
+		mChannel = mFile.getChannel();
+		mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		mPosition = position;
+		mCheckpointPosition = position;
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, mBuffer.remaining());
+			mBuffer.put(b, off, n);
+			off += n;
+			len -= n;
+			if (!mBuffer.hasRemaining()) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * 下一个字节写入的位置（包括缓冲中还没写入文件的数据）
+	 */
+	public long getPosition() {
+		return mPosition + mBuffer.position();
+	}
+
+	public long getCheckpointPosition() {
+		return mCheckpointPosition;
+	}
+
+	/**
+	 * 把缓冲写入文件（不强制写到存储上）
+	 */
+	private void flush() throws IOException {
+		mBuffer.flip();
+		while (mBuffer.hasRemaining()) {
+			mPosition += mChannel.write(mBuffer, mPosition);
+		}
+		mBuffer.clear();
+	}
+
+	/**
+	 * 写入缓冲并强制写到存储上，之后才能保存进度
+	 */
+	public void checkpoint() throws IOException {
+		flush();
+		mChannel.force(false);
+		mCheckpointPosition = mPosition;
+	}
+
+	/**
+	 * checkpoint后关闭。抛出异常时最后一次checkpoint之后的数据可能没有写入
+	 */
+	public void close() throws IOException {
+		try {
+			checkpoint();
+		} finally {
+			mFile.close();
+		}
+	}
+}
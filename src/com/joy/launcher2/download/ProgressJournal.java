@@ -0,0 +1,137 @@
+package com.joy.launcher2.download;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * 下载进度的延迟写入：下载线程保存进度时只把要写的值按key放在内存中（同一条记录只保留最新的），
+ * 定时或状态变化（暂停、完成、读取、删除）时在一个事务中一起写入数据库，
+ * 代替每次保存进度都打开数据库、update、关闭。
+ * 放入时就复制了要写的值，写入数据库的进度不会超过放入时已经写到存储上的数据
+ * @author wanghao
+ *
+ */
+public class ProgressJournal {
+
+	private static final String TAG = "ProgressJournal";
+
+	// 放入后最多延迟多久写入数据库
+	private static final long FLUSH_DELAY = 2000;
+
+	private static final ScheduledExecutorService sTimer = Executors.newSingleThreadScheduledExecutor();
+
+	private static class Entry {
+		final String table;
+		final String whereClause;
+		final ContentValues values;
+		// 没有这条记录时插入
+		final boolean insertIfMissing;
+
+		Entry(String table, String whereClause, ContentValues values, boolean insertIfMissing) {
+			this.table = table;
+			this.whereClause = whereClause;
+			this.values = values;
+			this.insertIfMissing = insertIfMissing;
+		}
+	}
+
+	private final Map<String, Entry> mPending = new LinkedHashMap<String, Entry>();
+	// 定时时调用，由数据库类打开数据库并调用flush(SQLiteDatabase)
+	private final Runnable mFlusher;
+	private boolean mScheduled;
+
+	/**
+	 * @param flusher 定时写入时在定时线程中调用
+	 */
+	public ProgressJournal(Runnable flusher) {
+		mFlusher = flusher;
+	}
+
+	/**
+	 * 放入一条要写的记录，替换同一个key还没写入的记录
+	 */
+	public synchronized void put(String key, String table, String whereClause, ContentValues values, boolean insertIfMissing) {
+		mPending.put(key, new Entry(table, whereClause, new ContentValues(values), insertIfMissing));
+		if (!mScheduled) {
+			mScheduled = true;
+			sTimer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (ProgressJournal.this) {
+						mScheduled = false;
+					}
+					try {
+						mFlusher.run();
+					} catch (RuntimeException e) {
+						Log.e(TAG, "---flush error " + e);
+					}
+				}
+			}, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * 丢掉key以prefix开头的还没写入的记录（删除下载、重新分段时）
+	 */
+	public synchronized void remove(String prefix) {
+		Iterator<String> it = mPending.keySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized boolean isEmpty() {
+		return mPending.isEmpty();
+	}
+
+	/**
+	 * 在一个事务中写入所有还没写入的记录。失败时记录保留，下次再写
+	 */
+	public void flush(SQLiteDatabase db) throws SQLException {
+		List<Map.Entry<String, Entry>> entries;
+		synchronized (this) {
+			if (mPending.isEmpty()) {
+				return;
+			}
+			entries = new ArrayList<Map.Entry<String, Entry>>(mPending.size());
+			for (Map.Entry<String, Entry> e : mPending.entrySet()) {
+				entries.add(new AbstractMap.SimpleEntry<String, Entry>(e));
+			}
+		}
+		db.beginTransaction();
+		try {
+			for (Map.Entry<String, Entry> e : entries) {
+				Entry entry = e.getValue();
+				int row = db.update(entry.table, entry.values, entry.whereClause, null);
+				if (row <= 0 && entry.insertIfMissing) {
+					db.insert(entry.table, null, entry.values);
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		synchronized (this) {
+			// 写入期间又放入的新值留到下次
+			for (Map.Entry<String, Entry> e : entries) {
+				if (mPending.get(e.getKey()) == e.getValue()) {
+					mPending.remove(e.getKey());
+				}
+			}
+		}
+	}
+}
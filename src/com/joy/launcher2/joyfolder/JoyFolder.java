@@ -1,5 +1,6 @@
 package com.joy.launcher2.joyfolder;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -48,6 +49,8 @@ import com.joy.launcher2.download.DownLoadDBHelper;
 import com.joy.launcher2.download.DownloadInfo;
 import com.joy.launcher2.download.DownloadManager;
 import com.joy.launcher2.network.handler.AppListHandler;
+import com.joy.launcher2.network.impl.NetworkExecutor;
+import com.joy.launcher2.network.impl.PrefetchScheduler;
 import com.joy.launcher2.network.impl.Service.CallBack;
 import com.joy.launcher2.preference.PreferencesProvider;
 import com.joy.launcher2.util.Constants;
@@ -168,6 +171,9 @@ public class JoyFolder extends Folder implements OnItemClickListener{
 		// TODO Auto-generated method stub
 		super.animateClosedDefault();
 		stopRecommendAnim();
+		if (gridView != null) {
+			gridView.cancelIconLoading();
+		}
 		
 		if (canUpdate()) {
 			updateShortcutInFolder();
@@ -284,6 +290,7 @@ public class JoyFolder extends Folder implements OnItemClickListener{
 					gridView.setOnItemClickListener(JoyFolder.this);
 					recommend.setVisibility(View.GONE);
 					stopRecommendAnim();
+					prefetchNextApkList();
 				}
 				refreshProgress.setVisibility(View.GONE);
 				refresh.setVisibility(View.VISIBLE);
@@ -306,6 +313,36 @@ public class JoyFolder extends Folder implements OnItemClickListener{
 		});
     }
 
+    /**
+     * 预取下一页推荐列表和其中的图标（图标存到SD卡，JoyFolderAdapter通过BitmapCache读取）
+     */
+    private void prefetchNextApkList(){
+    	if (JoyFolder.this.mInfo == null) {
+			return;
+		}
+    	final int type = JoyFolder.this.mInfo.natureId;
+    	final int index = AppListHandler.index;
+    	PrefetchScheduler.getInstance().schedule("applist:" + type + ":" + index, new PrefetchScheduler.PrefetchTask() {
+			@Override
+			public void prefetch() {
+				List<Map<String, Object>> items = LauncherApplication.mService.prefetchApkList(type, index, Constants.APK_LIST_NUM);
+				if (items == null) {
+					return;
+				}
+				for (Map<String, Object> item : items) {
+					if (!PrefetchScheduler.getInstance().hasBudget()) {
+						return;
+					}
+					String iconUrl = (String) item.get("icon");
+					String fileName = Util.getFileNameByUrl(iconUrl);
+					if (fileName != null && !new File(Constants.DOWNLOAD_IMAGE_DIR, fileName + ".png").exists()) {
+						LauncherApplication.mService.getBitmapByUrl(iconUrl, null);
+					}
+				}
+			}
+		});
+    }
+
     private void updateJoyFolderGridView(){
 
     	if (gridView.isShowOver()) {
@@ -461,7 +498,7 @@ public class JoyFolder extends Folder implements OnItemClickListener{
 					iconBitmap = LauncherApplication.mService.getBitmapByUrl(
 							iconUrl, null);
 				}
-			});
+			}, NetworkExecutor.PRIORITY_BACKGROUND);
 		}
 	}
 
@@ -2,6 +2,7 @@ package com.joy.launcher2.joyfolder;
 
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -20,6 +21,7 @@ import com.joy.launcher2.download.DownLoadDBHelper;
 import com.joy.launcher2.download.DownloadInfo;
 import com.joy.launcher2.download.DownloadManager;
 import com.joy.launcher2.download.DownloadManager.DownLoadTask;
+import com.joy.launcher2.network.impl.NetworkExecutor;
 
 /**
  * 在线文件夹中应用推荐列表
@@ -32,6 +34,8 @@ public class JoyFolderAdapter extends BaseAdapter {
 	List<Map<String, Object>> list;
 	Context c;
 	Drawable defaultDrawable;
+	// 每个图标View当前正在联网获取的图标任务，View被复用或文件夹关闭时取消
+	private final WeakHashMap<JoyIconView, NetworkExecutor.Task> mIconTasks = new WeakHashMap<JoyIconView, NetworkExecutor.Task>();
 	public JoyFolderAdapter(Context context) {
 		inflater = LayoutInflater.from(context);
 		this.c = context;
@@ -61,6 +65,18 @@ public class JoyFolderAdapter extends BaseAdapter {
 		Bitmap icon_bitmap = Utilities.createIconBitmap(tempbd, LauncherApplication.mContext);
 		defaultDrawable = new BitmapDrawable(LauncherApplication.mContext.getResources(), icon_bitmap); 
 	}
+	
+	/**
+	 * 取消所有还没完成的图标下载
+	 */
+	public void cancelIconTasks(){
+		for (NetworkExecutor.Task task : mIconTasks.values()) {
+			if (task != null) {
+				task.cancel();
+			}
+		}
+		mIconTasks.clear();
+	}
 	@Override
 	public View getView(int position, View convertView, ViewGroup parent) {
 		
@@ -90,7 +106,11 @@ public class JoyFolderAdapter extends BaseAdapter {
 		}
 		view.setCompoundDrawablesWithIntrinsicBounds(null,defaultDrawable,null, null);
 
-		LauncherApplication.mBcache.getBitmap(iconUrl, null, new ImageDownLoadCallback() {
+		NetworkExecutor.Task oldTask = mIconTasks.remove(view);
+		if (oldTask != null) {
+			oldTask.cancel();
+		}
+		NetworkExecutor.Task task = LauncherApplication.mBcache.getBitmap(iconUrl, null, new ImageDownLoadCallback() {
 			
 			@Override
 			public void imageDownLoaded(Bitmap bm) {
@@ -104,6 +124,9 @@ public class JoyFolderAdapter extends BaseAdapter {
 				}
 			}
 		}, null);
+		if (task != null) {
+			mIconTasks.put(view, task);
+		}
 		return view;
 	}
 }
@@ -91,6 +91,13 @@ public class JoyFolderGridView extends GridView{
 		}
 	}
 
+	/**
+	 * 取消还没完成的图标下载（文件夹关闭时调用）
+	 */
+	public void cancelIconLoading(){
+		adtaAdapter.cancelIconTasks();
+	}
+
 	public void update(){
 		
 		if (!isShowOver()) {
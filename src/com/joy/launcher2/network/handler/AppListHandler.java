@@ -1,18 +1,20 @@
 package com.joy.launcher2.network.handler;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import com.joy.launcher2.network.util.JsonStreamUtil;
+import com.joy.launcher2.network.util.WriteThroughInputStream;
 import com.joy.launcher2.util.Constants;
 import com.joy.launcher2.util.Util;
 
-import android.R.integer;
+import android.util.JsonReader;
 import android.util.Log;
 /**
  * 游戏、应用列表
@@ -23,26 +25,108 @@ public class AppListHandler {
 
 	public static int index = 1;
 	public static int num = 1;
-	public ArrayList<List<Map<String, Object>>> getAppList(String string,int row,int type) {
-		if (string == null) {
-			string = getAppLisLocalInfo(type);
+
+	/**
+	 * 从网络流中解析列表，同时把原始数据保存到本地；网络失败时解析本地保存的列表
+	 * @param in 网络流，可为null
+	 * @param row 每页个数
+	 * @param type
+	 * @return
+	 */
+	public ArrayList<List<Map<String, Object>>> getAppList(InputStream in,int row,int type) {
+		ArrayList<List<Map<String, Object>>> arrayList = null;
+		File localFile = getAppListLocalFile(type);
+		if (in != null) {
+			WriteThroughInputStream local = null;
+			InputStream source = in;
+			if (Util.hasSdcard()) {
+				try {
+					if (!localFile.getParentFile().exists()) {
+						localFile.getParentFile().mkdirs();
+					}
+					local = new WriteThroughInputStream(in, new File(localFile.getPath() + ".tmp"));
+					source = local;
+				} catch (IOException e) {
+					if(DEBUG) Log.w(TAG, "---getAppList save local : " + e);
+				}
+			}
+			arrayList = parseAppList(source, row);
+			if (local != null) {
+				if (arrayList != null && arrayList.size() > 0) {
+					try {
+						local.drain();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					local.commit(localFile);
+				} else {
+					local.abort();
+				}
+			} else if (arrayList != null && arrayList.size() > 0) {
+				// 读到结尾，响应缓存才会保存
+				JsonStreamUtil.drain(in);
+			}
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		}
+		if (arrayList == null && Util.hasSdcard() && localFile.exists()) {
+			InputStream fis = null;
+			try {
+				fis = new FileInputStream(localFile);
+				arrayList = parseAppList(fis, row);
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				if (fis != null) {
+					try {
+						fis.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+		return arrayList;
+	}
+
+	/**
+	 * 只解析列表（用于预取），不保存本地文件，也不改变index、num
+	 * @param in 网络流，可为null
+	 */
+	public List<Map<String, Object>> peekAppList(InputStream in) {
+		if (in == null) {
+			return null;
 		}
-		ArrayList<List<Map<String, Object>>> arrayList =new ArrayList<List<Map<String, Object>>>();
 		try {
-			if (string == null) {
-				return null;
+			List<Map<String, Object>> items = parseItems(in, new int[2]);
+			if (items != null) {
+				// 读到结尾，响应缓存才会保存；解析失败时不保存
+				JsonStreamUtil.drain(in);
 			}
-			JSONObject json = new JSONObject(string);
-			if (json == null) {
-				return null;
-			}else if (json.getInt("state") != 1) {
-				return null;
+			return items;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
 			}
-			JSONArray jsonarry = json.getJSONArray("item");
-		
-		int length = jsonarry.length();
+		}
+	}
+
+	/**
+	 * 流式解析列表，按row个一组分页（最后一页不足时从头补齐）
+	 */
+	private ArrayList<List<Map<String, Object>>> parseAppList(InputStream in, int row) {
+		int[] pageInfo = new int[2];
+		List<Map<String, Object>> items = parseItems(in, pageInfo);
+		if (items == null) {
+			return null;
+		}
+		int pi = pageInfo[0];
+		int pn = pageInfo[1];
 
-		int sum = length;
+		ArrayList<List<Map<String, Object>>> arrayList =new ArrayList<List<Map<String, Object>>>();
+		int sum = items.size();
 		int page = sum/row;
 		if (sum%row!=0) {
 			page +=1;
@@ -55,44 +139,89 @@ public class AppListHandler {
 				if (k>=sum) {
 					i = k%sum;
 				}
-				Map<String, Object> map = new HashMap<String, Object>();
-				JSONObject item = jsonarry.getJSONObject(i);
-				map.put("id", item.getInt("id"));
-				map.put("icon", item.getString("icon"));
-				map.put("name", item.getString("name"));
-				map.put("size", item.getInt("size"));
-				map.put("url", item.getString("url"));
-				list.add(map);
+				list.add(items.get(i));
 			}
 			 arrayList.add(list);
 		}
-		JSONObject pageJsonObject = json.getJSONObject("page");
-		index = pageJsonObject.getInt("pi");
-		num = pageJsonObject.getInt("pn");
-		index = index+1;
+		index = pi+1;
+		num = pn;
 		if (index > num) {
 			index = 1;
 		}
-		} catch (JSONException e) {
-			// TODO Auto-generated catch block
+		return arrayList;
+	}
+
+	/**
+	 * 流式解析列表项
+	 * @param pageInfo 输出：pageInfo[0]为pi，pageInfo[1]为pn
+	 * @return 格式错误或state不为1时返回null
+	 */
+	private List<Map<String, Object>> parseItems(InputStream in, int[] pageInfo) {
+		int state = 0;
+		int pi = -1;
+		int pn = -1;
+		List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+		try {
+			JsonReader reader = JsonStreamUtil.newReader(in);
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if ("state".equals(name)) {
+					state = JsonStreamUtil.nextInt(reader);
+				} else if ("item".equals(name)) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						Map<String, Object> map = new HashMap<String, Object>();
+						reader.beginObject();
+						while (reader.hasNext()) {
+							String key = reader.nextName();
+							if ("id".equals(key) || "size".equals(key)) {
+								map.put(key, JsonStreamUtil.nextInt(reader));
+							} else if ("icon".equals(key) || "name".equals(key) || "url".equals(key)) {
+								map.put(key, JsonStreamUtil.nextString(reader));
+							} else {
+								reader.skipValue();
+							}
+						}
+						reader.endObject();
+						if (!JsonStreamUtil.containsAll(map, "id", "icon", "name", "size", "url")) {
+							return null;
+						}
+						items.add(map);
+					}
+					reader.endArray();
+				} else if ("page".equals(name)) {
+					reader.beginObject();
+					while (reader.hasNext()) {
+						String key = reader.nextName();
+						if ("pi".equals(key)) {
+							pi = JsonStreamUtil.nextInt(reader);
+						} else if ("pn".equals(key)) {
+							pn = JsonStreamUtil.nextInt(reader);
+						} else {
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		} catch (Exception e) {
+			// IOException、格式错误（IllegalStateException、NumberFormatException）
 			e.printStackTrace();
 			return null;
 		}
-		if (arrayList.size()>0) {
-			saveAppLisLocalInfo(type, string);
+		if (state != 1 || pi == -1 || pn == -1) {
+			return null;
 		}
-		return arrayList;
+		pageInfo[0] = pi;
+		pageInfo[1] = pn;
+		return items;
 	}
-	
-	public static String getAppLisLocalInfo(int type){
 
-		String string = Util.readString(Constants.DOWNLOAD_JSON_DIR+"/"+type+"-"+Constants.FILENAME_APP_LIST);
-		return string;
-	}
-	
-	private static void saveAppLisLocalInfo(int type,String string){
-		if (string != null&&!string.equals("")) {
-			Util.saveString(Constants.DOWNLOAD_JSON_DIR+"/"+type+"-"+Constants.FILENAME_APP_LIST, string);
-		}
+	private static File getAppListLocalFile(int type){
+		return new File(Constants.DOWNLOAD_JSON_DIR+"/"+type+"-"+Constants.FILENAME_APP_LIST);
 	}
-}
\ No newline at end of file
+}
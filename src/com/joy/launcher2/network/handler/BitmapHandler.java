@@ -1,27 +1,43 @@
 package com.joy.launcher2.network.handler;
 
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
 import android.graphics.Matrix;
+import android.util.Log;
 
+import com.joy.launcher2.LauncherApplication;
 import com.joy.launcher2.cache.ImageOption;
+import com.joy.launcher2.network.util.WriteThroughInputStream;
 import com.joy.launcher2.util.Constants;
 import com.joy.launcher2.util.Util;
 
 /**
  * 根据流生成图片
+ * 边读边解码，不先把整个流读进byte[]：先在mark/reset的缓冲里解析宽高，再按2的幂缩小解码，
+ * 内存峰值约为一张目标尺寸的图片。
+ * 读到的原始数据同时写入SD卡，只有图片被缩小或旋转时才重新压缩保存。
+ * 头部超过MARK_LIMIT无法reset时，读完整个流，从写入的文件缩小解码
  * @author wanghao
  *
  */
 public class BitmapHandler {
 
+	private static final String TAG = "BitmapHandler";
+	private static final boolean DEBUG = false;
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+	// 解析宽高时最多缓冲的字节数（图片头部，如JPEG的EXIF），超过时无法reset
+	private static final int MARK_LIMIT = 1024 * 1024;
+
 	/**
 	 * 默认是获取.png格式图片
 	 * @param in
@@ -41,69 +57,189 @@ public class BitmapHandler {
 	 * @return
 	 */
 	public Bitmap getBitmapByUrl(InputStream in,String url,String suffix,ImageOption... option){
-		InputStream is = in;
-		if (is == null) {
+		if (in == null) {
 			return null;
 		}
-		byte[] b = Util.getBytes(is);
-		if(b==null){
-			return null;
+		String fileName = Util.getFileNameByUrl(url)+suffix;
+		File file = new File(Constants.DOWNLOAD_IMAGE_DIR + "/"+ fileName);
+		boolean save = Util.hasSdcard();
+		File tmp = null;
+		WriteThroughInputStream tee = null;
+		try {
+			if (save) {
+				if (!file.getParentFile().exists()) {
+					file.getParentFile().mkdirs();
+				}
+				tmp = new File(file.getPath() + ".tmp");
+			} else if (option != null && option.length > 0 && option[0] != null && LauncherApplication.mContext != null) {
+				// 没有SD卡时写到应用缓存目录，只用于头部过大时从文件解码，用完删除
+				tmp = File.createTempFile("bitmap", ".tmp", LauncherApplication.mContext.getCacheDir());
+			}
+			if (tmp != null) {
+				tee = new WriteThroughInputStream(in, tmp);
+			}
+		} catch (IOException e) {
+			if (DEBUG) Log.w(TAG, "---getBitmapByUrl save " + file + " : " + e);
+			if (tmp != null) {
+				tmp.delete();
+			}
+			tmp = null;
 		}
+		// 原图宽高，解码结果与之不同时说明图片被变换过
+		int[] outSize = new int[2];
+		BufferedInputStream is = new BufferedInputStream(tee != null ? tee : in, BUFFER_SIZE);
 		Bitmap bm = null;
-		if (option != null && option.length > 0) {
-			ImageOption op = option[0];
-			
-			int width = op.getWidth();
-			int height = op.getHeight();
-			
-			Options opts = new Options();
-			opts.inJustDecodeBounds = true;
-			BitmapFactory.decodeByteArray(b, 0, b.length, opts);
-			opts.inJustDecodeBounds = false;
-			if(op.isInclinationWidth()&&opts.outHeight>opts.outWidth){//倾向宽，但当前高比宽长的
-				opts.inSampleSize = opts.outHeight/width;
-				bm = BitmapFactory.decodeByteArray(b, 0, b.length, opts);
-				//旋转90度
-				Matrix matrix = new Matrix(); 
-			    matrix.postRotate(-90); 
-				bm = Bitmap.createBitmap(bm, 0, 0, bm.getWidth(), bm.getHeight(), matrix, true);
-			}else if(op.isInclinationHeight()&&opts.outWidth>opts.outHeight){
-				opts.inSampleSize = opts.outWidth/height;
-				bm = BitmapFactory.decodeByteArray(b, 0, b.length, opts);
-				//旋转90度
-				Matrix matrix = new Matrix(); 
-			    matrix.postRotate(-90); 
-				bm = Bitmap.createBitmap(bm, 0, 0, bm.getWidth(), bm.getHeight(), matrix, true);
-			}else{
-				int x = opts.outWidth / width;
-				int y = opts.outHeight / height;
-				opts.inSampleSize = x > y ? x : y;
-				bm = BitmapFactory.decodeByteArray(b, 0, b.length, opts);
+		boolean transformed = false;
+		try {
+			if (option != null && option.length > 0 && option[0] != null) {
+				bm = decodeSampled(is, tee, tmp, option[0], outSize);
+				transformed = bm != null && (bm.getWidth() != outSize[0] || bm.getHeight() != outSize[1]);
+			} else {
+				bm = BitmapFactory.decodeStream(is);
 			}
-			
-		} else {
-			bm = BitmapFactory.decodeByteArray(b, 0, b.length);
+			if (save && bm != null && tee != null && !transformed) {
+				// 解码器不一定读到结尾
+				tee.drain();
+			}
+		} catch (IOException e) {
+			if (DEBUG) Log.e(TAG, "---getBitmapByUrl " + url + " : " + e);
+		} catch (OutOfMemoryError e) {
+			if (DEBUG) Log.e(TAG, "---getBitmapByUrl " + url + " : " + e);
+		} finally {
+			try {
+				is.close();
+			} catch (IOException e) {
+			}
+		}
+
+		if (tee != null) {
+			if (save && bm != null && !transformed) {
+				// 原始数据直接存入SD卡
+				tee.commit(file);
+				return bm;
+			}
+			tee.abort();
 		}
 
-		// 存入SD卡
+		// 变换后的图片存入SD卡
 		if (Util.hasSdcard()&&bm!=null) {
+			FileOutputStream fos = null;
 			try {
-				String fileName = Util.getFileNameByUrl(url)+suffix;
-				File file = new File(Constants.DOWNLOAD_IMAGE_DIR + "/"+ fileName);
-				if (!file.getParentFile().exists()) {
-					file.getParentFile().mkdirs();
-				}
-				FileOutputStream fos = new FileOutputStream(file);
+				fos = new FileOutputStream(file);
 				if (fileName.toUpperCase().endsWith(".PNG")) {
 					bm.compress(CompressFormat.PNG, 100, fos);
 				} else {
 					bm.compress(CompressFormat.JPEG, 100, fos);
 				}
-			} catch (FileNotFoundException e) {
+			} catch (IOException e) {
 //				Logger.error(e);
+			} finally {
+				if (fos != null) {
+					try {
+						fos.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+
+		return bm;
+	}
+
+	/**
+	 * 按ImageOption缩小解码，需要时旋转90度
+	 * @param tee 包在is下面的写文件流，无法reset时读完后从tmp解码；为null时无法reset则抛出IOException
+	 */
+	private Bitmap decodeSampled(BufferedInputStream is, WriteThroughInputStream tee, File tmp, ImageOption op, int[] outSize) throws IOException {
+		Options opts = new Options();
+		opts.inJustDecodeBounds = true;
+		is.mark(MARK_LIMIT);
+		BitmapFactory.decodeStream(is, null, opts);
+		boolean fromFile = false;
+		try {
+			is.reset();
+		} catch (IOException e) {
+			// 头部超过MARK_LIMIT
+			if (tee == null) {
+				throw e;
 			}
+			fromFile = true;
+		}
+		int outWidth = opts.outWidth;
+		int outHeight = opts.outHeight;
+		outSize[0] = outWidth;
+		outSize[1] = outHeight;
+		if (outWidth <= 0 || outHeight <= 0) {
+			return null;
+		}
+
+		int width = op.getWidth();
+		int height = op.getHeight();
+		boolean rotate = false;
+		// 决定缩放比例的边：原图的边长 -> 目标边长
+		int srcSize;
+		int dstSize;
+		if (op.isInclinationWidth() && outHeight > outWidth) {//倾向宽，但当前高比宽长的，旋转后高变成宽
+			rotate = true;
+			srcSize = outHeight;
+			dstSize = width;
+		} else if (op.isInclinationHeight() && outWidth > outHeight) {
+			rotate = true;
+			srcSize = outWidth;
+			dstSize = height;
+		} else if (width > 0 && (height <= 0 || (float) outWidth / width >= (float) outHeight / height)) {
+			srcSize = outWidth;
+			dstSize = width;
+		} else {
+			srcSize = outHeight;
+			dstSize = height;
 		}
 
+		opts.inJustDecodeBounds = false;
+		opts.inSampleSize = 1;
+		if (dstSize > 0) {
+			// 2的幂，缩小后不小于目标尺寸
+			while (srcSize / (opts.inSampleSize * 2) >= dstSize) {
+				opts.inSampleSize *= 2;
+			}
+			int sampledSize = srcSize / opts.inSampleSize;
+			if (op.isScaleInDecoder() && sampledSize > dstSize) {
+				// 解码时按密度比例缩放到目标尺寸，不再另外createScaledBitmap
+				opts.inScaled = true;
+				opts.inDensity = sampledSize;
+				opts.inTargetDensity = dstSize;
+			}
+		}
+		Bitmap bm;
+		if (fromFile) {
+			// 已读的数据都写进了tmp，读完剩下的再从文件解码
+			tee.drain();
+			if (!tee.complete()) {
+				return null;
+			}
+			bm = BitmapFactory.decodeFile(tmp.getPath(), opts);
+		} else {
+			bm = BitmapFactory.decodeStream(is, null, opts);
+		}
+		if (bm == null) {
+			return null;
+		}
+		if (opts.inScaled && opts.inDensity > 0) {
+			// 恢复为默认密度，显示时不再按密度缩放
+			bm.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+		}
+		if (rotate) {
+			//旋转90度
+			Matrix matrix = new Matrix();
+			matrix.postRotate(-90);
+			Bitmap rotated = Bitmap.createBitmap(bm, 0, 0, bm.getWidth(), bm.getHeight(), matrix, true);
+			if (rotated != bm) {
+				bm.recycle();
+			}
+			bm = rotated;
+		}
+		if (DEBUG) Log.i(TAG, "---decodeSampled " + outWidth + "x" + outHeight + " -> " + bm.getWidth() + "x" + bm.getHeight()
+				+ " sample=" + opts.inSampleSize);
 		return bm;
 	}
 }
@@ -1,17 +1,17 @@
 package com.joy.launcher2.network.handler;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import android.util.JsonReader;
 import android.util.Log;
 
-import com.joy.launcher2.util.Util;
+import com.joy.launcher2.LauncherApplication;
+import com.joy.launcher2.network.util.JsonStreamUtil;
 /**
  * 内置apk 、widget、虚框软件、在线文件夹 解析
  * @author User
@@ -20,94 +20,92 @@ import com.joy.launcher2.util.Util;
 public class BuiltInHandler {
 	private static final String TAG = "BuiltInHandler";
 	private static final Boolean DEBUG = true;
+	private static final String BUILT_IN_FILE = "built-in.txt";
 
 	public List<Map<String, Object>> getBuiltInShortcutList() {
-		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
-		try {
-			String string = Util.getStringFromAssets("built-in.txt");
-			JSONObject jsonObject = new JSONObject(string);
-			JSONArray jsonarry = jsonObject.getJSONArray("built_in_shortcut");
-
-			int length = jsonarry.length();
-			for (int i = 0; i < length; i++) {
-				Map<String, Object> map = new HashMap<String, Object>();
-				JSONObject item = jsonarry.getJSONObject(i);
-				
-				map.put("id", item.getInt("id"));
-				map.put("container", item.getInt("container"));
-				map.put("icon", item.getString("icon"));
-				map.put("name", item.getString("name"));
-				map.put("url", item.getString("url"));
-				map.put("filesize", item.getInt("filesize"));
-				map.put("packageName", item.getString("packageName"));
-				map.put("className", item.getString("className"));
-				map.put("title", item.getString("title"));
-				map.put("screen", item.getInt("screen"));
-				map.put("x", item.getInt("x"));
-				map.put("y", item.getInt("y"));
-				
-				list.add(map);
-			}
-		} catch (JSONException e) {
-			e.printStackTrace();
-			Log.w(TAG, "-- e:"+e);
-			return null;
-		}
-		return list;
+		return getBuiltInList("built_in_shortcut",
+				new String[] { "id", "container", "filesize", "screen", "x", "y" },
+				new String[] { "icon", "name", "url", "packageName", "className", "title" });
 	}
 
 	public List<Map<String, Object>> getBuiltInJoyFolderList() {
+		return getBuiltInList("built_in_joyfolder",
+				new String[] { "id", "screen", "x", "y" },
+				new String[] { "icon", "title" });
+	}
+
+	public List<Map<String, Object>> getBuiltInWidgetList() {
+		return getBuiltInList("built_in_widget",
+				new String[] { "screen", "x", "y", "spanX", "spanY" },
+				new String[] { "packageName", "className" });
+	}
+
+	/**
+	 * 从assets中流式读取section数组，只取需要的字段，其他部分直接跳过
+	 * @param section 数组名
+	 * @param intKeys int字段
+	 * @param stringKeys 字符串字段
+	 * @return 缺少字段或格式错误时返回null
+	 */
+	private List<Map<String, Object>> getBuiltInList(String section, String[] intKeys, String[] stringKeys) {
 		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		InputStream in = null;
 		try {
-			String string = Util.getStringFromAssets("built-in.txt");
-			JSONObject jsonObject = new JSONObject(string);
-			JSONArray jsonarry = jsonObject.getJSONArray("built_in_joyfolder");
-			int length = jsonarry.length();
-			for (int i = 0; i < length; i++) {
-				Map<String, Object> map = new HashMap<String, Object>();
-				JSONObject item = jsonarry.getJSONObject(i);
-				
-				map.put("id", item.getInt("id"));
-				map.put("icon", item.getString("icon"));
-				map.put("title", item.getString("title"));
-				map.put("screen", item.getInt("screen"));
-				map.put("x", item.getInt("x"));
-				map.put("y", item.getInt("y"));
-				list.add(map);
+			in = LauncherApplication.mContext.getAssets().open(BUILT_IN_FILE);
+			JsonReader reader = JsonStreamUtil.newReader(in);
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (!section.equals(reader.nextName())) {
+					reader.skipValue();
+					continue;
+				}
+				reader.beginArray();
+				while (reader.hasNext()) {
+					Map<String, Object> map = new HashMap<String, Object>();
+					reader.beginObject();
+					while (reader.hasNext()) {
+						String key = reader.nextName();
+						if (contains(intKeys, key)) {
+							map.put(key, JsonStreamUtil.nextInt(reader));
+						} else if (contains(stringKeys, key)) {
+							map.put(key, JsonStreamUtil.nextString(reader));
+						} else {
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+					if (!JsonStreamUtil.containsAll(map, intKeys) || !JsonStreamUtil.containsAll(map, stringKeys)) {
+						Log.w(TAG, "-- missing field in " + section);
+						return null;
+					}
+					list.add(map);
+				}
+				reader.endArray();
+				return list;
 			}
-		} catch (JSONException e) {
+			Log.w(TAG, "-- no " + section);
+			return null;
+		} catch (Exception e) {
+			// IOException、格式错误（IllegalStateException、NumberFormatException）
 			e.printStackTrace();
 			Log.w(TAG, "-- e:"+e);
 			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
 		}
-		return list;
 	}
 
-	public List<Map<String, Object>> getBuiltInWidgetList() {
-		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
-		try {
-			String string = Util.getStringFromAssets("built-in.txt");
-			JSONObject jsonObject = new JSONObject(string);
-			JSONArray jsonarry = jsonObject.getJSONArray("built_in_widget");
-			int length = jsonarry.length();
-			for (int i = 0; i < length; i++) {
-				Map<String, Object> map = new HashMap<String, Object>();
-				JSONObject item = jsonarry.getJSONObject(i);
-				
-				map.put("packageName", item.getString("packageName"));
-				map.put("className", item.getString("className"));
-				map.put("screen", item.getInt("screen"));
-				map.put("x", item.getInt("x"));
-				map.put("y", item.getInt("y"));
-				map.put("spanX", item.getInt("spanX"));
-				map.put("spanY", item.getInt("spanY"));
-				list.add(map);
+	private static boolean contains(String[] keys, String key) {
+		for (String k : keys) {
+			if (k.equals(key)) {
+				return true;
 			}
-		} catch (JSONException e) {
-			e.printStackTrace();
-			Log.w(TAG, "-- e:"+e);
-			return null;
 		}
-		return list;
+		return false;
 	}
 }
\ No newline at end of file
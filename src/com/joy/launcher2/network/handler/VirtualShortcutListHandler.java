@@ -1,48 +1,84 @@
 package com.joy.launcher2.network.handler;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import android.util.JsonReader;
 import android.util.Log;
 
+import com.joy.launcher2.network.util.JsonStreamUtil;
+
 public class VirtualShortcutListHandler {
 	private static final String TAG = "VirtualShortcutListHandler";
 	private static final Boolean DEBUG = true;
 
-	public List<Map<String, Object>> geShortcutList(JSONObject json) {
+	public List<Map<String, Object>> geShortcutList(InputStream in) {
+		if (in == null) {
+			return null;
+		}
 		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		int state = 0;
 		try {
-			if (json == null || json.getInt("state") != 1) {
-				return null;
+			JsonReader reader = JsonStreamUtil.newReader(in);
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if ("state".equals(name)) {
+					state = JsonStreamUtil.nextInt(reader);
+				} else if ("item".equals(name)) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						Map<String, Object> map = new HashMap<String, Object>();
+						reader.beginObject();
+						while (reader.hasNext()) {
+							String key = reader.nextName();
+							if ("id".equals(key)) {
+								map.put("id", JsonStreamUtil.nextInt(reader));
+							} else if ("icon".equals(key)) {
+								map.put("icon", JsonStreamUtil.nextString(reader));
+							} else if ("type".equals(key)) {
+								map.put("soft_type", JsonStreamUtil.nextInt(reader));
+							} else if ("packageName".equals(key)) {
+								String packageName = JsonStreamUtil.nextString(reader);
+								map.put("class_name", packageName);//
+								map.put("package_name", packageName);
+							} else if ("name".equals(key)) {
+								map.put("soft_name", JsonStreamUtil.nextString(reader));
+							} else if ("size".equals(key)) {
+								map.put("soft_size", JsonStreamUtil.nextInt(reader));
+							} else if ("url".equals(key)) {
+								map.put("url", JsonStreamUtil.nextString(reader));
+							} else {
+								reader.skipValue();
+							}
+						}
+						reader.endObject();
+						if (!JsonStreamUtil.containsAll(map, "id", "icon", "soft_type", "package_name",
+								"soft_name", "soft_size", "url")) {
+							return null;
+						}
+						list.add(map);
+					}
+					reader.endArray();
+				} else {
+					reader.skipValue();
+				}
 			}
-			JSONArray jsonarry = json.getJSONArray("item");
-		
-		int length = jsonarry.length();
-		for(int i=0;i<length;i++){
-			Map<String, Object> map = new HashMap<String, Object>();
-			JSONObject item = jsonarry.getJSONObject(i);
-			map.put("id", item.getInt("id"));
-			map.put("icon", item.getString("icon"));
-			map.put("soft_type", item.getInt("type"));
-			map.put("class_name", item.getString("packageName"));//
-			map.put("package_name", item.getString("packageName"));
-			map.put("soft_name", item.getString("name"));
-			map.put("soft_size", item.getInt("size"));
-			map.put("url", item.getString("url"));
-			list.add(map);
-		}
-		} catch (JSONException e) {
-			// TODO Auto-generated catch block
+			reader.endObject();
+		} catch (Exception e) {
+			// IOException、格式错误（IllegalStateException、NumberFormatException）
 			e.printStackTrace();
 			Log.i(TAG, "-------e:"+e);
 			return null;
 		}
+		if (state != 1) {
+			return null;
+		}
+		// 读到结尾，响应缓存才会保存
+		JsonStreamUtil.drain(in);
 		return list;
 	}
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.joy.launcher2.network.handler;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -8,7 +9,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
-import com.joy.launcher2.cache.JsonFile;
+import com.joy.launcher2.cache.WallpaperCatalog;
+import com.joy.launcher2.cache.WallpaperCatalog.Catalog;
 import com.joy.launcher2.wallpaper.CategoryInfo;
 import com.joy.launcher2.wallpaper.WallpaperInfo;
 
@@ -22,67 +24,113 @@ import android.util.Log;
  */
 public class WallpaperHandler {
 	
+	private static final String NATIVE_LIST_FILE = "native_json_item";
 
 	//add by huangming for online wallpaper
 	/**
-	 * 通过jsonfile获得json对象
-	 * @param jsonFile
+	 * 获得本地壁纸列表，第一次使用时由程序自带的壁纸生成
+	 * @param catalogFile
 	 * @param isNative
-	 * @return JSONObject
+	 * @return Catalog
 	 */
-	public static JSONObject createWPListJson(final JsonFile jsonFile, 
+	public static Catalog createWPList(final WallpaperCatalog catalogFile, 
 			final boolean isNative)
 	{
-		JSONObject json = jsonFile.getJsonFromFile("native_json_item", isNative);
-		if(json == null)
+		File dirFile = catalogFile.getDirectoryFile(isNative);
+		Catalog catalog = catalogFile.readWallpapers(NATIVE_LIST_FILE, dirFile);
+		if(catalog == null)
 		{
-			json = new JSONObject();
+			ArrayList<WallpaperInfo> items = new ArrayList<WallpaperInfo>();
+			catalogFile.loadNativeWallpaper(items);
+			catalog = catalogFile.writeWallpapers(items, NATIVE_LIST_FILE, dirFile);
 		}
-		if(json.isNull("state"))
+		return catalog;
+	}
+	
+	/**
+	 * 将一条信息加入本地壁纸列表（整个列表重写）
+	 * @param wi
+	 * @param catalogFile
+	 */
+	public static void putToNative(final WallpaperInfo wi, final WallpaperCatalog catalogFile)
+	{
+		synchronized (catalogFile) {
+			Catalog catalog = createWPList(catalogFile, true);
+			ArrayList<WallpaperInfo> items = new ArrayList<WallpaperInfo>(catalog.getCount() + 1);
+			for(int i = 0; i < catalog.getCount(); i++)
+			{
+				WallpaperInfo item = catalog.getWallpaper(i);
+				if(item != null)
+				{
+					items.add(item);
+				}
+			}
+			items.add(wi);
+			catalogFile.writeWallpapers(items, NATIVE_LIST_FILE, catalogFile.getDirectoryFile(true));
+		}
+	}
+	
+	/**
+	 * 通过本地列表获得壁纸信息（每条记录在这里才解析）
+	 * @param wis
+	 * @param wisThum
+	 * @param catalog
+	 * @param isNative
+	 * @return 条数
+	 */
+	public static int wallpaperList(final ArrayList<WallpaperInfo> wis, 
+			final ArrayList<WallpaperInfo> wisThum, 
+			final Catalog catalog, 
+			final boolean isNative)
+	{
+		if(catalog == null)
 		{
-			
-			try {
-				json.put("state", 1);
-				JSONArray items = new JSONArray();
-				json.put("item", items);
-				JSONObject page = new JSONObject();
-				page.put("ps", 0);
-				page.put("pi", 0);
-				page.put("pn", 0);
-				page.put("rn", 0);
-				json.put("page", page);
-				jsonFile.loadNativeWallpaper(items);
-				jsonFile.saveJsonToFile(json, "native_json_item", isNative);
-			} catch (JSONException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			return 0;
+		}
+		int count = 0;
+		for(int i = 0; i < catalog.getCount(); i++)
+		{
+			WallpaperInfo wi = catalog.getWallpaper(i);
+			if(wi == null)
+			{
+				continue;
 			}
+			wi.isNative = isNative;
+			wi.isThumbnail = false;
+			
+			WallpaperInfo wiThum = new WallpaperInfo();
+			wiThum.id = wi.id;
+			wiThum.size = wi.size;
+			wiThum.isNative = isNative;
+			wiThum.isThumbnail = true;
+			wiThum.url = wi.urls[0];
+			wiThum.wallpaperName = wi.wallpaperName;
+			wisThum.add(wiThum);
+			wis.add(wi);
+			count++;
 		}
-		return json;
+		return count;
 	}
 	
 	/**
-	 * 将一条信息写入jsonfile
-	 * @param wi
-	 * @param jsonFile
+	 * 通过本地列表获得壁纸类别
+	 * @param cInfos
+	 * @param catalog
 	 */
-	public static void putJsonToNative(final WallpaperInfo wi, final JsonFile jsonFile)
+	public static void wallpaperCategoryList(final List<CategoryInfo> cInfos, 
+			final Catalog catalog)
 	{
-		JSONObject json = createWPListJson(jsonFile, true);
-		try {
-			JSONArray items = json.getJSONArray("item");
-			JSONObject item = new JSONObject();
-			item.put("id", wi.id);
-			item.put("size",wi.size);
-			item.put("name", wi.wallpaperName);
-			item.put("icon", wi.urls[0]);
-			item.put("preview", wi.url);
-			item.put("url", wi.urls[1]);
-			items.put(item);
-			jsonFile.saveJsonToFile(json, "native_json_item", true);
-		} catch (JSONException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		if(catalog == null)
+		{
+			return;
+		}
+		for(int i = 0; i < catalog.getCount(); i++)
+		{
+			CategoryInfo ci = catalog.getCategory(i);
+			if(ci != null)
+			{
+				cInfos.add(ci);
+			}
 		}
 	}
 	
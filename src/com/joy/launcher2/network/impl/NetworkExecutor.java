@@ -0,0 +1,136 @@
+package com.joy.launcher2.network.impl;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.joy.launcher2.network.impl.Service.CallBack;
+
+/**
+ * 联网任务的线程池：限制并发数，按优先级出队（同优先级先进先出），
+ * 提交后返回{@link Task}，调用者可在任务联网前取消
+ */
+public class NetworkExecutor {
+
+	// 界面上可见的内容（图标、列表等）
+	public static final int PRIORITY_VISIBLE = 0;
+	// 后台预取，界面上暂时看不到
+	public static final int PRIORITY_BACKGROUND = 1;
+
+	// 同时联网的最大任务数
+	private static final int MAX_CONCURRENT = 3;
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private final ThreadPoolExecutor mExecutor;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final AtomicLong mSequence = new AtomicLong();
+
+	public NetworkExecutor() {
+		mExecutor = new ThreadPoolExecutor(MAX_CONCURRENT, MAX_CONCURRENT,
+				KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), new NetworkThreadFactory());
+		mExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * 提交任务
+	 * @param callBack
+	 * @param priority PRIORITY_VISIBLE | PRIORITY_BACKGROUND
+	 * @return 可取消的任务句柄
+	 */
+	public Task execute(CallBack callBack, int priority) {
+		Task task = new Task(callBack, priority, mSequence.getAndIncrement());
+		mExecutor.execute(task);
+		return task;
+	}
+
+	/**
+	 * 取消所有还没开始的任务
+	 */
+	public void cancelAll() {
+		Object[] pending = mExecutor.getQueue().toArray();
+		for (Object o : pending) {
+			((Task) o).cancel();
+		}
+	}
+
+	/**
+	 * 联网任务。onPreExecute/onPostExecute在主线程执行，doInBackground在线程池中执行；
+	 * 被取消后不再回调（已开始的doInBackground会执行完，但不会再调用onPostExecute）
+	 */
+	public class Task implements Runnable, Comparable<Task> {
+		private final CallBack mCallBack;
+		private final int mPriority;
+		private final long mSequence;
+		private volatile boolean mCancelled;
+
+		Task(CallBack callBack, int priority, long sequence) {
+			mCallBack = callBack;
+			mPriority = priority;
+			mSequence = sequence;
+		}
+
+		public void cancel() {
+			mCancelled = true;
+			mExecutor.remove(this);
+		}
+
+		public boolean isCancelled() {
+			return mCancelled;
+		}
+
+		@Override
+		public void run() {
+			if (mCancelled) {
+				return;
+			}
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (!mCancelled) {
+						mCallBack.onPreExecute();
+					}
+				}
+			});
+			mCallBack.doInBackground();
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (!mCancelled) {
+						mCallBack.onPostExecute();
+					}
+				}
+			});
+		}
+
+		@Override
+		public int compareTo(Task another) {
+			if (mPriority != another.mPriority) {
+				return mPriority < another.mPriority ? -1 : 1;
+			}
+			return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+		}
+	}
+
+	private static class NetworkThreadFactory implements ThreadFactory {
+		private final AtomicInteger mCount = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			return new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					r.run();
+				}
+			}, "joy-network-" + mCount.getAndIncrement());
+		}
+	}
+}
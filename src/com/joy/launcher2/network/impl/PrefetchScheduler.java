@@ -0,0 +1,246 @@
+package com.joy.launcher2.network.impl;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.util.Log;
+
+import com.joy.launcher2.LauncherApplication;
+import com.joy.launcher2.NetWorkStatusChangeReceiver;
+import com.joy.launcher2.network.impl.Service.CallBack;
+import com.joy.launcher2.network.util.NetworkStats;
+
+/**
+ * 预取调度：壁纸下一页、壁纸类别缩略图、推荐文件夹图标等在后台提前下载到已有的缓存中。
+ * 只在不计费的Wi-Fi且充电时执行，移动网络、计费的Wi-Fi热点下不预取；每天的预取流量不超过{@link #DAILY_BUDGET}（只计预取请求的流量）。
+ * 条件不满足时任务保留在队列里，网络或充电状态变化后再执行；任务一个接一个执行，不与前台请求抢带宽
+ */
+public class PrefetchScheduler implements NetWorkStatusChangeReceiver.Refreshable {
+
+	private static final String TAG = "PrefetchScheduler";
+	private static final boolean DEBUG = true;
+
+	// 每天预取流量上限
+	private static final long DAILY_BUDGET = 10 * 1024 * 1024;
+	// 队列里最多保留的任务数，超过时丢弃最早的
+	private static final int MAX_PENDING = 32;
+	private static final int VERSION_CODES_JELLY_BEAN = 16;
+
+	private static final String PREFERENCES = "prefetch_preferences";
+	private static final String KEY_DATE = "date";
+	private static final String KEY_BYTES = "bytes";
+
+	private static PrefetchScheduler sInstance;
+
+	/**
+	 * 预取任务，在后台线程执行。下载多个文件时应在每个文件前检查{@link PrefetchScheduler#hasBudget()}
+	 */
+	public interface PrefetchTask {
+		void prefetch();
+	}
+
+	private Context mContext;
+	// key -> task，相同key的任务只保留一个
+	private final LinkedHashMap<String, PrefetchTask> mPending = new LinkedHashMap<String, PrefetchTask>();
+	private boolean mRunning;
+	private boolean mStarted;
+	private long mUsedBytes;
+	private String mUsedDate;
+	// 当前任务的请求收到的字节数（NetworkStats按线程累加），没有任务时为null
+	private AtomicLong mTaskBytes;
+	private NetWorkStatusChangeReceiver mNetworkReceiver;
+
+	private final BroadcastReceiver mPowerReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			refresher();
+		}
+	};
+
+	private PrefetchScheduler() {
+	}
+
+	public static synchronized PrefetchScheduler getInstance() {
+		if (sInstance == null) {
+			sInstance = new PrefetchScheduler();
+		}
+		return sInstance;
+	}
+
+	/**
+	 * 开始监听网络和充电状态
+	 */
+	public synchronized void start(Context context) {
+		if (mStarted) {
+			return;
+		}
+		mStarted = true;
+		mContext = context.getApplicationContext();
+		SharedPreferences sp = mContext.getSharedPreferences(PREFERENCES, 0);
+		mUsedDate = sp.getString(KEY_DATE, "");
+		mUsedBytes = sp.getLong(KEY_BYTES, 0);
+
+		mNetworkReceiver = new NetWorkStatusChangeReceiver(this);
+		mContext.registerReceiver(mNetworkReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+		IntentFilter filter = new IntentFilter(Intent.ACTION_POWER_CONNECTED);
+		filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+		mContext.registerReceiver(mPowerReceiver, filter);
+	}
+
+	public synchronized void stop() {
+		if (!mStarted) {
+			return;
+		}
+		mStarted = false;
+		mContext.unregisterReceiver(mNetworkReceiver);
+		mContext.unregisterReceiver(mPowerReceiver);
+		mPending.clear();
+	}
+
+	/**
+	 * 加入预取任务，条件允许时马上执行
+	 * @param key 相同key的任务只执行一次（后加入的替换先加入的）
+	 */
+	public void schedule(String key, PrefetchTask task) {
+		synchronized (this) {
+			if (!mStarted) {
+				return;
+			}
+			mPending.remove(key);
+			mPending.put(key, task);
+			if (mPending.size() > MAX_PENDING) {
+				Iterator<String> it = mPending.keySet().iterator();
+				it.next();
+				it.remove();
+			}
+		}
+		runNext();
+	}
+
+	/**
+	 * 网络变化（NetWorkStatusChangeReceiver）或充电状态变化
+	 */
+	@Override
+	public void refresher() {
+		runNext();
+	}
+
+	/**
+	 * 当前网络和充电状态是否允许预取
+	 */
+	public boolean isAllowed() {
+		Context context = mContext;
+		if (context == null) {
+			return false;
+		}
+		ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo info = cm.getActiveNetworkInfo();
+		// 移动网络按流量计费，不预取
+		if (info == null || !info.isConnected() || info.getType() != ConnectivityManager.TYPE_WIFI) {
+			return false;
+		}
+		// 手机热点等计费的Wi-Fi也不预取
+		if (Build.VERSION.SDK_INT >= VERSION_CODES_JELLY_BEAN && cm.isActiveNetworkMetered()) {
+			return false;
+		}
+		Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+	}
+
+	/**
+	 * 今天的预取流量是否还有剩余（包括当前任务已用的流量），且网络条件仍然允许
+	 */
+	public boolean hasBudget() {
+		if (!isAllowed()) {
+			return false;
+		}
+		synchronized (this) {
+			resetIfNewDay();
+			long used = mUsedBytes;
+			if (mTaskBytes != null) {
+				used += mTaskBytes.get();
+			}
+			return used < DAILY_BUDGET;
+		}
+	}
+
+	private void runNext() {
+		final String key;
+		final PrefetchTask task;
+		synchronized (this) {
+			if (mRunning || mPending.isEmpty() || LauncherApplication.mService == null) {
+				return;
+			}
+			if (!hasBudget()) {
+				return;
+			}
+			Iterator<Map.Entry<String, PrefetchTask>> it = mPending.entrySet().iterator();
+			Map.Entry<String, PrefetchTask> entry = it.next();
+			it.remove();
+			key = entry.getKey();
+			task = entry.getValue();
+			mRunning = true;
+		}
+		LauncherApplication.mService.GotoNetwork(new CallBack() {
+			@Override
+			public void onPreExecute() {
+			}
+
+			@Override
+			public void onPostExecute() {
+			}
+
+			@Override
+			public void doInBackground() {
+				AtomicLong taskBytes = new AtomicLong();
+				synchronized (PrefetchScheduler.this) {
+					mTaskBytes = taskBytes;
+				}
+				// 任务在本线程中同步请求，只统计这些请求的流量，不计前台下载等
+				NetworkStats.setThreadCounter(taskBytes);
+				try {
+					task.prefetch();
+				} catch (Exception e) {
+					e.printStackTrace();
+				} finally {
+					NetworkStats.setThreadCounter(null);
+					long used;
+					synchronized (PrefetchScheduler.this) {
+						used = taskBytes.get();
+						mTaskBytes = null;
+						resetIfNewDay();
+						mUsedBytes += used;
+						mContext.getSharedPreferences(PREFERENCES, 0).edit()
+						.putString(KEY_DATE, mUsedDate)
+						.putLong(KEY_BYTES, mUsedBytes)
+						.commit();
+						mRunning = false;
+					}
+					if (DEBUG) Log.i(TAG, "---prefetch " + key + " used " + used + " bytes, today " + mUsedBytes);
+				}
+				runNext();
+			}
+		}, NetworkExecutor.PRIORITY_BACKGROUND);
+	}
+
+	private void resetIfNewDay() {
+		String today = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+		if (!today.equals(mUsedDate)) {
+			mUsedDate = today;
+			mUsedBytes = 0;
+		}
+	}
+}
@@ -149,6 +149,7 @@ public class ProtocalFactory{
 		pw.setHost(HOST_MUTUAL);
 		int id = type;
 		pw.setGetData("?op="+OP_APP_IN_FOLDER+"&channel="+SystemInfo.channel+"&id="+id);
+		pw.setCacheable(true);
 		return pw;
 	}
 
@@ -162,6 +163,7 @@ public class ProtocalFactory{
 		pw.setHost(HOST_MUTUAL);
 		int category = type;
 		pw.setGetData("?op="+OP_APKLIST+"&channel="+SystemInfo.channel+"&category="+category+"&pi="+index+"&ps="+num);
+		pw.setCacheable(true);
 		return pw;
 	}
 	
@@ -183,6 +185,7 @@ public class ProtocalFactory{
 				"&language="+SystemInfo.language;
 		pw.setHost(HOST_PUSH);
 		pw.setGetData(data);
+		pw.setCacheable(true);
 		return pw;
 	}
 
@@ -208,6 +211,7 @@ public class ProtocalFactory{
 		String protocalData = "?op="+OP_WALLPAPER_LIST + "&category="+category+"&pi="+(previousPage+1)+"&ps=10";
 		pw.setHost(HOST_MUTUAL);
 		pw.setGetData(protocalData);
+		pw.setCacheable(true);
 		return pw;
 	}
 	
@@ -221,6 +225,7 @@ public class ProtocalFactory{
 		String protocalData = "?op="+OP_WALLPAPER;
 		pw.setHost(HOST_MUTUAL);
 		pw.setGetData(protocalData);
+		pw.setCacheable(true);
 		return pw;
 	}
 	
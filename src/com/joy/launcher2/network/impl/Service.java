@@ -1,18 +1,18 @@
 package com.joy.launcher2.network.impl;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import org.json.JSONObject;
 
 import android.R.integer;
 import android.graphics.Bitmap;
-import android.os.Handler;
-import android.os.Message;
 
 import com.joy.launcher2.cache.ImageOption;
 import com.joy.launcher2.network.handler.ActivateHanlder;
@@ -21,6 +21,7 @@ import com.joy.launcher2.network.handler.BitmapHandler;
 import com.joy.launcher2.network.handler.VirtualShortcutListHandler;
 import com.joy.launcher2.network.util.ClientHttp;
 import com.joy.launcher2.network.util.ClientInterface;
+import com.joy.launcher2.network.util.NetworkStats;
 import com.joy.launcher2.network.util.Protocal;
 import com.joy.launcher2.util.SystemInfo;
 import com.joy.launcher2.wallpaper.ImageLoader;
@@ -34,7 +35,15 @@ public class Service {
 	private static Service service;
 	ClientInterface cs = null;
 	ProtocalFactory pfactory;
+	NetworkExecutor executor;
 	Map<String, Protocal> protocals = Collections.synchronizedMap(new HashMap<String, Protocal>());
+	// 正在下载的图片（key: url+ImageOption），相同的并发请求共用一次下载和解码
+	private final Map<String, BitmapFlight> bitmapFlights = new HashMap<String, BitmapFlight>();
+
+	private static class BitmapFlight {
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile Bitmap bitmap;
+	}
 
 	// 类似于AsycTask类
 	public interface CallBack {
@@ -62,37 +71,28 @@ public class Service {
 			service = new Service();
 			service.cs = new ClientHttp();
 			service.pfactory = new ProtocalFactory();
+			service.executor = new NetworkExecutor();
 		}
 		return service;
 	}
 
-	public void GotoNetwork(final CallBack callBack) {
-
-		final Handler handler = new Handler() {
-			public void handleMessage(Message message) {
-
-				int what = message.what;
-				switch (what) {
-				case 0:
-					callBack.onPreExecute();
-					break;
-				case 1:
-					callBack.onPostExecute();
-					break;
-				}
-			}
-		};
-		new Thread(new Runnable() {
+	/**
+	 * 联网处理，界面可见优先级
+	 * @param callBack
+	 * @return 可取消的任务句柄
+	 */
+	public NetworkExecutor.Task GotoNetwork(final CallBack callBack) {
+		return GotoNetwork(callBack, NetworkExecutor.PRIORITY_VISIBLE);
+	}
 
-			@Override
-			public void run() {
-				// TODO Auto-generated method stub
-				handler.sendEmptyMessage(0);
-				callBack.doInBackground();
-				handler.sendEmptyMessage(1);
-			}
-		}).start();
-		;
+	/**
+	 * 联网处理，在共享的线程池中按优先级执行
+	 * @param callBack
+	 * @param priority NetworkExecutor.PRIORITY_VISIBLE | NetworkExecutor.PRIORITY_BACKGROUND
+	 * @return 可取消的任务句柄
+	 */
+	public NetworkExecutor.Task GotoNetwork(final CallBack callBack, int priority) {
+		return executor.execute(callBack, priority);
 	}
 
 	// --------------------------------------------------------------------------
@@ -100,6 +100,7 @@ public class Service {
 	 * 释放网络资源
 	 */
 	public void shutdownNetwork() {
+		executor.cancelAll();
 		cs.shutdownNetwork();
 		cs = null;
 		service = null;
@@ -109,13 +110,68 @@ public class Service {
 		return cs.isOK();
 	}
 
+	/**
+	 * 获取网络图片。同一url、同一ImageOption的并发请求只下载、解码一次，
+	 * 其余调用者等待并拿到同一个Bitmap。url为null时（如列表项没有图标）返回null
+	 */
 	public Bitmap getBitmapByUrl(String url, ImageOption... option) {
-		// TODO Auto-generated method stub
+		if (url == null) {
+			return null;
+		}
+		String key = getFlightKey(url, option);
+		BitmapFlight flight;
+		boolean owner = false;
+		synchronized (bitmapFlights) {
+			flight = bitmapFlights.get(key);
+			if (flight == null) {
+				flight = new BitmapFlight();
+				bitmapFlights.put(key, flight);
+				owner = true;
+			}
+		}
+		if (!owner) {
+			NetworkStats.getInstance().recordCoalesced(NetworkStats.getKey(pfactory.bitmapProtocal(url)));
+			try {
+				flight.done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			return flight.bitmap;
+		}
+		try {
+			flight.bitmap = downloadBitmap(url, option);
+		} finally {
+			synchronized (bitmapFlights) {
+				bitmapFlights.remove(key);
+			}
+			flight.done.countDown();
+		}
+		return flight.bitmap;
+	}
+
+	private static String getFlightKey(String url, ImageOption... option) {
+		StringBuilder sb = new StringBuilder(url);
+		if (option != null && option.length > 0 && option[0] != null) {
+			ImageOption op = option[0];
+			sb.append('#').append(op.getWidth()).append('x').append(op.getHeight())
+			.append(op.isInclinationWidth() ? 'w' : '-')
+			.append(op.isInclinationHeight() ? 'h' : '-')
+			.append(op.isScaleInDecoder() ? 's' : '-');
+		}
+		return sb.toString();
+	}
+
+	private Bitmap downloadBitmap(String url, ImageOption... option) {
 		Protocal protocal = pfactory.bitmapProtocal(url);
 		InputStream in = cs.getInputStream(protocal);
 		BitmapHandler bhandler = new BitmapHandler();
-		Bitmap bp = bhandler.getBitmapByUrl(in, url, option);
-		return bp;
+		try {
+			return bhandler.getBitmapByUrl(in, url, option);
+		} finally {
+			// 连接池共享，流不关闭时连接要等到GC才归还
+			closeQuietly(in);
+		}
 	}
 
 	public InputStream getDownLoadInputStream(String url){
@@ -135,6 +191,25 @@ public class Service {
 		return iStream;
 	}
 	
+	/**
+	 * 分段下载的一段：请求[startPos, endPos]（包括endPos，-1表示到文件结尾）。
+	 * 不经过protocals，同一个url可以同时有多个请求；服务器没有返回Content-Range（不支持断点）时
+	 * ClientHttp中断请求（不下载响应体），返回null
+	 * @param totalLength 不为null时写入服务器返回的文件总长度，未知时为-1
+	 */
+	public InputStream getDownLoadRangeInputStream(String url,int startPos,int endPos,long[] totalLength){
+		
+		Protocal protocal = pfactory.downloadApkProtocal(url);
+		protocal.setStartPos(startPos);
+		protocal.setEndPos(endPos);
+		protocal.setBoundedRange(true);
+		InputStream iStream = cs.getInputStream(protocal);
+		if (totalLength != null) {
+			totalLength[0] = protocal.getTotalLength();
+		}
+		return iStream;
+	}
+	
     public InputStream getPushDownLoadInputStream(String url,int startPos,int endPos){
 		
 		Protocal protocal = pfactory.downloadPushApkProtocal(url);
@@ -210,16 +285,13 @@ public class Service {
 	 */
 	public List<Map<String, Object>> getShortcutListInFolder(int folderType){
 		Protocal protocal = pfactory.getAppInFolderProtocal(folderType);
-		JSONObject result = null;
+		InputStream in = cs.getInputStream(protocal);
+		VirtualShortcutListHandler handler = new VirtualShortcutListHandler();
 		try {
-			result = cs.request(protocal);
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			return handler.geShortcutList(in);
+		} finally {
+			closeQuietly(in);
 		}
-		VirtualShortcutListHandler handler = new VirtualShortcutListHandler();
-	
-		return handler.geShortcutList(result);
 	}
 	
 	/**
@@ -228,14 +300,36 @@ public class Service {
 	 */
 	public ArrayList<List<Map<String, Object>>> getApkList(int type,int index,int num){
 		Protocal protocal = pfactory.getApkListProtocal(type,index,num);
-		String string = null;
+		InputStream in = cs.getInputStream(protocal);
+		AppListHandler handler = new AppListHandler();
 		try {
-			string = cs.getString(protocal);
-		} catch (Exception e) {
-			e.printStackTrace();
+			return handler.getAppList(in,4,type);
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * 预取游戏、应用列表：响应存入缓存，不改变当前分页，也不覆盖本地保存的列表
+	 * @return 列表项，失败返回null
+	 */
+	public List<Map<String, Object>> prefetchApkList(int type,int index,int num){
+		Protocal protocal = pfactory.getApkListProtocal(type,index,num);
+		InputStream in = cs.getInputStream(protocal);
+		try {
+			return new AppListHandler().peekAppList(in);
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private static void closeQuietly(InputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
 		}
-		AppListHandler handler = new AppListHandler();
-		return handler.getAppList(string,4,type);
 	}
 	 
 	//add by huangming for push.
@@ -1,12 +1,14 @@
 package com.joy.launcher2.network.util;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 
 import javax.net.ssl.SSLHandshakeException;
@@ -16,14 +18,28 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.NoHttpResponseException;
 import org.apache.http.client.HttpRequestRetryHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.ExecutionContext;
 import org.apache.http.protocol.HttpContext;
 import org.json.JSONObject;
@@ -32,8 +48,10 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
 import android.graphics.drawable.BitmapDrawable;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.joy.launcher2.LauncherApplication;
 import com.joy.launcher2.network.impl.ProtocalFactory;
 import com.joy.launcher2.util.Constants;
 import com.joy.launcher2.util.SystemInfo;
@@ -49,6 +67,121 @@ public class ClientHttp implements ClientInterface {
 
 	private static final String TAG = "ClientHttp";
 	private static final Boolean DEBUG = true;
+
+	// 连接池：总连接数、每个主机的连接数
+	private static final int MAX_TOTAL_CONNECTIONS = 12;
+	private static final int MAX_CONNECTIONS_PER_HOST = 4;
+	// 建立连接超时、从连接池取连接超时
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final long POOL_TIMEOUT = 10000;
+	// 空闲连接超过该时间即关闭，避免复用已被服务器断开的连接
+	private static final long IDLE_CONNECTION_TIMEOUT = 30000;
+	// 本次请求是否使用退避重连（保存在HttpContext中，供共享的RetryHandler读取），false时按HttpClient默认方式重连
+	private static final String ATTR_RETRY = "joy.retry";
+	// 本次请求的统计key（保存在HttpContext中，供RetryHandler记录重连次数）
+	private static final String ATTR_STATS_KEY = "joy.stats_key";
+	// 本次请求的主机（保存在HttpContext中，供RetryHandler查询熔断状态）
+	private static final String ATTR_HOST = "joy.host";
+
+	// 所有ClientHttp实例共享一个线程安全的keep-alive连接池
+	private static DefaultHttpClient sHttpClient;
+	// json接口的响应缓存
+	private static HttpResponseCache sResponseCache;
+	// 测试用：把所有请求的协议和主机替换成该地址（如本地模拟服务器），null时不替换
+	private static volatile String sHostOverride;
+	// 测试用：响应缓存目录，null时使用应用的cacheDir/http
+	private static File sResponseCacheDir;
+
+	/**
+	 * 测试用：所有请求改发到hostOverride（如"http://127.0.0.1:8080"），传null恢复
+	 */
+	public static void setHostOverride(String hostOverride) {
+		sHostOverride = hostOverride;
+	}
+
+	/**
+	 * 测试用：响应缓存改用dir（如临时目录），传null恢复默认目录
+	 */
+	public static synchronized void setResponseCacheDir(File dir) {
+		sResponseCacheDir = dir;
+		sResponseCache = null;
+	}
+
+	private static String applyHostOverride(String url) {
+		String hostOverride = sHostOverride;
+		if (hostOverride == null) {
+			return url;
+		}
+		int schemeEnd = url.indexOf("://");
+		int pathStart = schemeEnd < 0 ? -1 : url.indexOf('/', schemeEnd + 3);
+		return pathStart < 0 ? hostOverride : hostOverride + url.substring(pathStart);
+	}
+
+	private static synchronized HttpResponseCache getResponseCache() {
+		if (sResponseCache == null && sResponseCacheDir != null) {
+			sResponseCache = new HttpResponseCache(sResponseCacheDir);
+		} else if (sResponseCache == null && LauncherApplication.mContext != null) {
+			sResponseCache = new HttpResponseCache(new File(LauncherApplication.mContext.getCacheDir(), "http"));
+		}
+		return sResponseCache;
+	}
+
+	/**
+	 * 联网失败或主机熔断时，可缓存的接口返回上次缓存的数据
+	 */
+	private static InputStream getCachedFallback(Protocal protocal) {
+		if (!protocal.isCacheable()) {
+			return null;
+		}
+		HttpResponseCache responseCache = getResponseCache();
+		if (responseCache == null) {
+			return null;
+		}
+		HttpResponseCache.Entry cached = responseCache.get(HttpResponseCache.getKey(protocal));
+		if (cached == null) {
+			return null;
+		}
+		try {
+			if(DEBUG) Log.i(TAG, "---getCachedFallback " + protocal.getGetData());
+			return cached.getBody();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * 获取共享的HttpClient，不存在（或已被shutdownNetwork释放）时重新创建
+	 */
+	private static synchronized DefaultHttpClient getHttpClient() {
+		if (sHttpClient == null) {
+			HttpParams params = new BasicHttpParams();
+			ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+			ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_HOST));
+			ConnManagerParams.setTimeout(params, POOL_TIMEOUT);
+			HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT);
+			HttpConnectionParams.setSoTimeout(params, Constants.TIMEOUT);
+			HttpConnectionParams.setStaleCheckingEnabled(params, true);
+
+			SchemeRegistry registry = new SchemeRegistry();
+			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+			registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+			ClientConnectionManager manager = new ThreadSafeClientConnManager(params, registry);
+			sHttpClient = new DefaultHttpClient(manager, params);
+			sHttpClient.setHttpRequestRetryHandler(new RetryHandler());
+		}
+		return sHttpClient;
+	}
+
+	/**
+	 * 关闭过期和空闲过久的连接
+	 */
+	private static void evictIdleConnections(DefaultHttpClient httpClient) {
+		ClientConnectionManager manager = httpClient.getConnectionManager();
+		manager.closeExpiredConnections();
+		manager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+	}
+
 	@Override
 	public JSONObject request(Protocal protocal) throws Exception {
 //		JSONObject data = post(protocal);
@@ -62,7 +195,12 @@ public class ClientHttp implements ClientInterface {
 	
 	@Override
 	public void shutdownNetwork() {
-		
+		synchronized (ClientHttp.class) {
+			if (sHttpClient != null) {
+				sHttpClient.getConnectionManager().shutdown();
+				sHttpClient = null;
+			}
+		}
 	}
 
 	@Override
@@ -72,8 +210,8 @@ public class ClientHttp implements ClientInterface {
 
 	public String getString(Protocal protocal) throws Exception {
 
-		StringBuffer buffer = new StringBuffer();
-		BufferedReader reader = null;
+		StringBuilder buffer = new StringBuilder();
+		Reader reader = null;
 		InputStream in = null;
 		try {
 			in = getInputStream(protocal);
@@ -82,13 +220,12 @@ public class ClientHttp implements ClientInterface {
 				return null;
 			}
 
-			reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+			reader = new InputStreamReader(in, "UTF-8");
 
-			Log.i(TAG, "  reader : " + reader);
-			String line = null;
-			while ((line = reader.readLine()) != null) {
-				Log.i(TAG, "  line : " + line);
-				buffer.append(line);
+			char[] chars = new char[4096];
+			int count;
+			while ((count = reader.read(chars)) != -1) {
+				buffer.append(chars, 0, count);
 			}
 
 			return buffer.toString();
@@ -113,19 +250,32 @@ public class ClientHttp implements ClientInterface {
 	 * 获取输入流
 	 */
 	public InputStream getInputStream(Protocal protocal){
-		if(!Util.isNetworkConnected()){
+		NetworkStats stats = NetworkStats.getInstance();
+		String statsKey = NetworkStats.getKey(protocal);
+		// 请求改发到本地模拟服务器时不需要网络
+		if(sHostOverride == null && !Util.isNetworkConnected()){
 			if(DEBUG) Log.e(TAG, "---getInputStream 没有打开网络连接！");
-			return null;
+			stats.recordFailure(statsKey, "no_network");
+			return getCachedFallback(protocal);
 		}
-		DefaultHttpClient httpClient = new DefaultHttpClient();  
+		HostHealth health = HostHealth.getInstance();
+		String host = HostHealth.getHost(applyHostOverride(protocal.getHost() == null ? Constants.BASE_URL : protocal.getHost()));
+		if (!health.allowRequest(host)) {
+			// 主机熔断中，不再等待超时
+			if(DEBUG) Log.e(TAG, "---getInputStream 主机不可用： " + host);
+			stats.recordFailure(statsKey, "circuit_open");
+			return getCachedFallback(protocal);
+		}
+		DefaultHttpClient httpClient = getHttpClient();
+		evictIdleConnections(httpClient);
 
 		InputStream result = null;
+		HttpRequestBase httpRequest = null;
 		try {
-			if (protocal.isReTry()) {
-				httpClient.setHttpRequestRetryHandler(new RetryHandler());
-			}
-			httpClient.getParams().setParameter(CoreConnectionPNames.SO_TIMEOUT,
-					protocal.getSoTimeout() > 0 ? protocal.getSoTimeout() : Constants.TIMEOUT); // ���ӳ�ʱ
+			HttpContext httpContext = new BasicHttpContext();
+			httpContext.setAttribute(ATTR_RETRY, protocal.isReTry());
+			httpContext.setAttribute(ATTR_STATS_KEY, statsKey);
+			httpContext.setAttribute(ATTR_HOST, host);
 
 			String urlStrl = null;
 			if (protocal.getHost() == null) {
@@ -133,19 +283,21 @@ public class ClientHttp implements ClientInterface {
 			} else {
 				urlStrl = protocal.getHost();
 			}
+			urlStrl = applyHostOverride(urlStrl);
 			String randomTS = Util.getTS();
 			// url
 			if (protocal.getGetData() != null) {
 				urlStrl += protocal.getGetData() +ProtocalFactory.getSign(randomTS);
 			}
 			if(DEBUG) Log.i(TAG, "---getInputStream urlStrl： "+urlStrl);
-			
-			HttpRequestBase httpRequest = null;
+
 			// post
+			long bytesOut = 0;
 			if (protocal.getPostData() != null) {
 				httpRequest = new HttpPost(urlStrl);
 				byte[] sendData = protocal.getPostData().toString().getBytes("UTF-8");
 				((HttpPost) httpRequest).setEntity(new ByteArrayEntity(sendData));
+				bytesOut = sendData.length;
 			} else {
 				httpRequest = new HttpGet(urlStrl);
 			}
@@ -159,15 +311,41 @@ public class ClientHttp implements ClientInterface {
 			httpRequest.addHeader("deviceId", SystemInfo.deviceid);// –唯一设备号
 			httpRequest.addHeader("Accept-Encoding", "gzip");
 			httpRequest.addHeader("Content-Type", "text/json;charset=UTF-8");
+			// 条件请求：带上缓存的校验信息
+			HttpResponseCache responseCache = null;
+			HttpResponseCache.Entry cached = null;
+			String cacheKey = null;
+			if (protocal.isCacheable()) {
+				responseCache = getResponseCache();
+			}
+			if (responseCache != null) {
+				cacheKey = HttpResponseCache.getKey(protocal);
+				cached = responseCache.get(cacheKey);
+				if (cached != null) {
+					if (cached.etag != null) {
+						httpRequest.addHeader("If-None-Match", cached.etag);
+					}
+					if (cached.lastModified != null) {
+						httpRequest.addHeader("If-Modified-Since", cached.lastModified);
+					}
+				}
+			}
 			int startPos = protocal.getStartPos();
 			int endPos = protocal.getEndPos();
-			if (startPos != -1 && endPos != -1) {
+			if (protocal.isBoundedRange() && startPos != -1) {
+				// 分段下载：只请求一段
+				httpRequest.addHeader("Range", "bytes=" + startPos + "-" + (endPos != -1 ? String.valueOf(endPos) : ""));
+				if(DEBUG) Log.i(TAG, "-----range:"+startPos+"-"+endPos);
+			} else if (startPos != -1 && endPos != -1) {
 				httpRequest.addHeader("Range", "bytes=" + startPos + "-");
 				if(DEBUG) Log.i(TAG, "-----startPos:"+startPos);
 				if(DEBUG) Log.i(TAG, "-----endPos:"+endPos);
 			}
 			
-			HttpResponse httpResponse = httpClient.execute(httpRequest);
+			stats.recordRequest(statsKey, bytesOut);
+			long startTime = SystemClock.elapsedRealtime();
+			HttpResponse httpResponse = httpClient.execute(httpRequest, httpContext);
+			stats.recordLatency(statsKey, SystemClock.elapsedRealtime() - startTime);
             Header[] contentHeads= httpResponse.getHeaders("Content-Range");
 			
 			for(Header h : contentHeads){
@@ -175,41 +353,99 @@ public class ClientHttp implements ClientInterface {
 				if(value != null && value.contains("bytes"))
 				{
 					protocal.setIsBreakPoint(true);
+					protocal.setTotalLength(parseTotalLength(value));
 					if(DEBUG)Log.i(TAG, "BreakPoint : " + h.getValue());
 				}
 			}
 			int httpCode = httpResponse.getStatusLine().getStatusCode();
 			if(DEBUG) Log.i(TAG, "-----httpCode-------"+httpCode);
-			if (httpCode == HttpURLConnection.HTTP_OK || httpCode == Constants.DOWNLOAD_APK_HTTP_OK) {
+			if (httpCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+				health.recordFailure(host);
+			} else {
+				health.recordSuccess(host);
+			}
+			if (protocal.isBoundedRange() && !protocal.getIsBreakPoint()) {
+				// 分段下载但服务器不支持断点（返回整个文件）：中断请求，不读取响应体
+				httpRequest.abort();
+				stats.recordFailure(statsKey, "range_not_supported");
+				if(DEBUG) Log.i(TAG, "-----range not supported : " + urlStrl);
+			} else if (httpCode == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+				// 没有变化，直接读缓存
+				HttpEntity entity = httpResponse.getEntity();
+				if (entity != null) {
+					entity.consumeContent();
+				}
+				result = cached.getBody();
+				stats.recordNotModified(statsKey);
+				if(DEBUG) Log.i(TAG, "-----not modified, from cache : " + urlStrl);
+			} else if (httpCode == HttpURLConnection.HTTP_OK || httpCode == Constants.DOWNLOAD_APK_HTTP_OK) {
 				Header encodeHader = httpResponse.getLastHeader("Content-Encoding");
 				if (encodeHader != null && "gzip".equals(encodeHader.getValue())) {
-					result = handleReponse(httpResponse, true);
+					result = handleReponse(httpResponse, true, statsKey);
 				} else {
-					result = handleReponse(httpResponse, false);
+					result = handleReponse(httpResponse, false, statsKey);
+				}
+				if (result != null && cacheKey != null && httpCode == HttpURLConnection.HTTP_OK) {
+					Header etag = httpResponse.getLastHeader("ETag");
+					Header lastModified = httpResponse.getLastHeader("Last-Modified");
+					if (etag != null || lastModified != null) {
+						result = responseCache.put(cacheKey,
+								etag != null ? etag.getValue() : null,
+								lastModified != null ? lastModified.getValue() : null, result);
+					}
 				}
 			}else{
+				// 读完响应体，连接才能回到连接池
+				HttpEntity entity = httpResponse.getEntity();
+				if (entity != null) {
+					entity.consumeContent();
+				}
+				stats.recordFailure(statsKey, "http_" + httpCode);
 				if(DEBUG) Log.e(TAG, "---getInputStream 网络异常    -----------》2");
 			}
 
 		} catch (Exception ex) {
 			ex.printStackTrace();
+			if (httpRequest != null) {
+				httpRequest.abort();
+			}
+			stats.recordFailure(statsKey, ex.getClass().getSimpleName());
+			health.recordFailure(host);
 			if(DEBUG) Log.e(TAG, "---getInputStream 网络异常    -----------》1");
+			result = getCachedFallback(protocal);
 		}
 		return result;
 	}
+	/**
+	 * Content-Range（bytes a-b/total）中的文件总长度，total为*或格式不对时返回-1
+	 */
+	private static long parseTotalLength(String contentRange) {
+		int slash = contentRange.lastIndexOf('/');
+		if (slash < 0) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(contentRange.substring(slash + 1).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
 	/**
 	 * 转换方法  HttpResponse->InputStream
 	 * @param response
 	 * @param gzip
+	 * @param statsKey 统计key，返回的流读完或关闭时记录收到的字节数
 	 * @return
 	 * @throws IOException
 	 */
-	private InputStream handleReponse(HttpResponse response, boolean gzip) throws IOException {
+	private InputStream handleReponse(HttpResponse response, boolean gzip, String statsKey) throws IOException {
 		InputStream is = null;
 		HttpEntity entity = response.getEntity();
 		if (entity != null) {
+			NetworkStats.CountingInputStream wire = new NetworkStats.CountingInputStream(entity.getContent());
 			if (gzip) {
-				is = new GZIPInputStream(entity.getContent());
+				is = new GZIPInputStream(wire);
 				BufferedInputStream bis = new BufferedInputStream(is);
 				bis.mark(2);
 				// 取前两个字节
@@ -226,8 +462,9 @@ public class ClientHttp implements ClientInterface {
 					is= bis;
 				}
 			} else {
-				is = new BufferedInputStream(entity.getContent());
+				is = new BufferedInputStream(wire);
 			}
+			is = new NetworkStats.MeteredInputStream(is, statsKey, wire, gzip);
 		}
 		return is;
 	}
@@ -236,14 +473,44 @@ public class ClientHttp implements ClientInterface {
 	 * @author User
 	 *
 	 */
-	private class RetryHandler implements HttpRequestRetryHandler {
+	private static class RetryHandler implements HttpRequestRetryHandler {
+
+		// 不要求重连的请求仍按HttpClient默认的方式重连（幂等请求最多3次，不退避），与共享连接池之前一致
+		private final HttpRequestRetryHandler mDefault = new DefaultHttpRequestRetryHandler();
 
 		@Override
 		public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+			
+			if (Boolean.FALSE.equals(context.getAttribute(ATTR_RETRY))) {
+				return mDefault.retryRequest(exception, executionCount, context);
+			}
 
 			if(DEBUG) Log.i(TAG, "---retryRequest requestServiceResource response executionCount: " + 
 					executionCount + " exception:"+ exception);
 			
+			boolean retry = shouldRetry(exception, executionCount, context);
+			Object host = context.getAttribute(ATTR_HOST);
+			if (retry && host != null && !HostHealth.getInstance().isAvailable((String) host)) {
+				// 主机已熔断，其他请求已经确认不可用，不再重连
+				retry = false;
+			}
+			if (retry) {
+				Object statsKey = context.getAttribute(ATTR_STATS_KEY);
+				if (statsKey != null) {
+					NetworkStats.getInstance().recordRetry((String) statsKey);
+				}
+				// 指数退避后再重连
+				try {
+					Thread.sleep(HostHealth.getInstance().getRetryDelay(executionCount));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return retry;
+		}
+
+		private boolean shouldRetry(IOException exception, int executionCount, HttpContext context) {
 			if (executionCount > 3) {
 				// Do not retry if over max retry count
 				return false;
@@ -0,0 +1,159 @@
+package com.joy.launcher2.network.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * 按主机记录健康状况的熔断器：
+ * 连续失败达到阈值后熔断（OPEN），退避时间内的请求直接失败；
+ * 退避时间到后放行一个探测请求（HALF_OPEN），成功则恢复（CLOSED），失败则加倍退避（带随机抖动）
+ */
+public class HostHealth {
+
+	private static final String TAG = "HostHealth";
+	private static final boolean DEBUG = true;
+
+	// 连续失败多少次后熔断
+	private static final int FAILURE_THRESHOLD = 3;
+	// 第一次熔断的退避时间，之后每次加倍，不超过最大值
+	private static final long BASE_BACKOFF = 5 * 1000;
+	private static final long MAX_BACKOFF = 10 * 60 * 1000;
+	// 退避时间的随机抖动比例（±）
+	private static final float JITTER = 0.2f;
+	// 同一个请求内部重连的退避
+	private static final long RETRY_BASE_DELAY = 500;
+	private static final long RETRY_MAX_DELAY = 4000;
+
+	private static final int STATE_CLOSED = 0;
+	private static final int STATE_OPEN = 1;
+	private static final int STATE_HALF_OPEN = 2;
+
+	private static final HostHealth sInstance = new HostHealth();
+
+	private final Map<String, Host> mHosts = new HashMap<String, Host>();
+	private final Random mRandom = new Random();
+
+	private static class Host {
+		int state = STATE_CLOSED;
+		int failures;
+		// 连续熔断的次数，决定退避时间
+		int opens;
+		long retryAt;
+		boolean probing;
+	}
+
+	private HostHealth() {
+	}
+
+	public static HostHealth getInstance() {
+		return sInstance;
+	}
+
+	/**
+	 * url -> 主机名（解析不出时用原字符串）
+	 */
+	public static String getHost(String url) {
+		if (url == null) {
+			return "";
+		}
+		String host = Uri.parse(url).getHost();
+		return host != null ? host : url;
+	}
+
+	private Host get(String host) {
+		Host h = mHosts.get(host);
+		if (h == null) {
+			h = new Host();
+			mHosts.put(host, h);
+		}
+		return h;
+	}
+
+	/**
+	 * 是否允许向该主机发请求。熔断中返回false；退避时间到时只放行一个探测请求
+	 */
+	public synchronized boolean allowRequest(String host) {
+		Host h = get(host);
+		switch (h.state) {
+		case STATE_OPEN:
+			if (SystemClock.elapsedRealtime() < h.retryAt) {
+				return false;
+			}
+			h.state = STATE_HALF_OPEN;
+			h.probing = true;
+			if (DEBUG) Log.i(TAG, "---allowRequest half open, probe " + host);
+			return true;
+		case STATE_HALF_OPEN:
+			if (h.probing) {
+				return false;
+			}
+			h.probing = true;
+			return true;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * 主机当前是否可用（不改变状态，也不占用探测名额）
+	 */
+	public synchronized boolean isAvailable(String host) {
+		Host h = get(host);
+		return h.state == STATE_CLOSED
+				|| (h.state == STATE_OPEN && SystemClock.elapsedRealtime() >= h.retryAt)
+				|| (h.state == STATE_HALF_OPEN && !h.probing);
+	}
+
+	public synchronized void recordSuccess(String host) {
+		Host h = get(host);
+		if (DEBUG && h.state != STATE_CLOSED) Log.i(TAG, "---recordSuccess closed " + host);
+		h.state = STATE_CLOSED;
+		h.failures = 0;
+		h.opens = 0;
+		h.probing = false;
+	}
+
+	/**
+	 * 连接失败、超时或服务器5xx
+	 */
+	public synchronized void recordFailure(String host) {
+		Host h = get(host);
+		h.failures++;
+		h.probing = false;
+		if (h.state == STATE_HALF_OPEN || h.failures >= FAILURE_THRESHOLD) {
+			h.state = STATE_OPEN;
+			h.opens++;
+			long backoff = jitter(Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(h.opens - 1, 16)));
+			h.retryAt = SystemClock.elapsedRealtime() + backoff;
+			if (DEBUG) Log.i(TAG, "---recordFailure open " + host + " for " + backoff + "ms");
+		}
+	}
+
+	/**
+	 * 清除所有主机的状态
+	 */
+	public synchronized void reset() {
+		mHosts.clear();
+	}
+
+	/**
+	 * 同一个请求第executionCount次重连前等待的时间：指数退避加抖动
+	 */
+	public long getRetryDelay(int executionCount) {
+		long delay = Math.min(RETRY_MAX_DELAY, RETRY_BASE_DELAY << Math.min(Math.max(executionCount - 1, 0), 16));
+		return jitter(delay);
+	}
+
+	private long jitter(long value) {
+		float factor;
+		synchronized (mRandom) {
+			factor = 1 + (mRandom.nextFloat() * 2 - 1) * JITTER;
+		}
+		return (long) (value * factor);
+	}
+}
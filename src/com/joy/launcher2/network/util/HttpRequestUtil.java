@@ -9,6 +9,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -21,6 +23,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
@@ -50,18 +53,33 @@ public class HttpRequestUtil
      * @throws Exception 
      */  
     public static byte[] postXml(String path, String xml, String encoding) throws Exception{  
-        byte[] data = xml.getBytes(encoding);  
+        return postXml(path, xml, encoding, false);
+    }  
+
+    /**
+     * 发送xml数据
+     * @param gzip 是否gzip压缩请求体（Content-Encoding: gzip，边压缩边发送）
+     */
+    public static byte[] postXml(String path, String xml, String encoding, boolean gzip) throws Exception{  
         URL url = new URL(path);  
         HttpURLConnection conn = (HttpURLConnection)url.openConnection();  
         conn.setRequestMethod("POST");  
         conn.setDoOutput(true);  
         conn.setRequestProperty("Content-Type", "text/xml; charset="+ encoding);  
-        conn.setRequestProperty("Content-Length", String.valueOf(data.length));  
         conn.setConnectTimeout(5 * 1000);  
-        OutputStream outStream = conn.getOutputStream();  
-        outStream.write(data);  
-        outStream.flush();  
-        outStream.close();  
+        if (gzip) {
+            OutputStream outStream = openRequestBody(conn, true);
+            Writer writer = new OutputStreamWriter(outStream, encoding);
+            writer.write(xml);
+            writer.close();
+        } else {
+            byte[] data = xml.getBytes(encoding);  
+            conn.setRequestProperty("Content-Length", String.valueOf(data.length));  
+            OutputStream outStream = conn.getOutputStream();  
+            outStream.write(data);  
+            outStream.flush();  
+            outStream.close();  
+        }
         if(conn.getResponseCode()==200){  
             return readStream(conn.getInputStream());  
         }  
@@ -203,6 +221,15 @@ public class HttpRequestUtil
     
     public static boolean httpPostWithAnnex(String actionUrl, String channel,
     		FormFile[] files) throws IOException {
+    	return httpPostWithAnnex(actionUrl, channel, files, false);
+    }
+
+    /**
+     * 上传文件
+     * @param gzip 是否gzip压缩请求体（Content-Encoding: gzip，边读文件边压缩边发送）
+     */
+    public static boolean httpPostWithAnnex(String actionUrl, String channel,
+    		FormFile[] files, boolean gzip) throws IOException {
 //    	try {
     	
     	Map<String, String> params = new HashMap<String, String>();  
@@ -255,7 +282,7 @@ public class HttpRequestUtil
 			//System.out.println("++++++++++++++++++++++++++++ entry.getKey() :" + entry.getKey()  +  "  entry.getValue():" +entry.getValue());
 		}
 		DataOutputStream outStream = new DataOutputStream(
-				conn.getOutputStream());
+				openRequestBody(conn, gzip));
 		outStream.write(EncodingUtils.getBytes(sb.toString(), "utf-8"));// 发送表单字段数据
 		// 上传的文件部分
 		for (FormFile file : files) {
@@ -298,7 +325,12 @@ public class HttpRequestUtil
 		//String strResult="";
 		byte[] end_data = ("--" + BOUNDARY + "--\r\n").getBytes();// 数据结束标志
 		outStream.write(end_data);
-		outStream.flush();
+		if (gzip) {
+			// 写出gzip结尾
+			outStream.close();
+		} else {
+			outStream.flush();
+		}
 		int cah = conn.getResponseCode();
 		
 		System.out.println("conn.getResponseCode()conn.getResponseCode()conn.getResponseCode():"+cah);
@@ -387,18 +419,30 @@ public class HttpRequestUtil
      */  
     public static byte[] post(String path, Map<String, String> params, String encode) throws Exception  
     {  
-        //String params = "method=save&name="+ URLEncoder.encode("老毕", "UTF-8")+ "&age=28&";//需要发送的参数  
-        StringBuilder parambuilder = new StringBuilder("");  
-        if(params!=null && !params.isEmpty())  
-        {  
-            for(Map.Entry<String, String> entry : params.entrySet())  
+        return post(path, params, encode, false);
+    }  
+
+    /**
+     * 发送请求
+     * @param gzip 是否gzip压缩请求体（Content-Encoding: gzip，参数逐个编码后直接写入压缩流）
+     */
+    public static byte[] post(String path, Map<String, String> params, String encode, boolean gzip) throws Exception  
+    {  
+        byte[] data = null;
+        if (!gzip) {
+            //String params = "method=save&name="+ URLEncoder.encode("老毕", "UTF-8")+ "&age=28&";//需要发送的参数  
+            StringBuilder parambuilder = new StringBuilder("");  
+            if(params!=null && !params.isEmpty())  
             {  
-                parambuilder.append(entry.getKey()).append("=")  
-                    .append(URLEncoder.encode(entry.getValue(), encode)).append("&");  
+                for(Map.Entry<String, String> entry : params.entrySet())  
+                {  
+                    parambuilder.append(entry.getKey()).append("=")  
+                        .append(URLEncoder.encode(entry.getValue(), encode)).append("&");  
+                }  
+                parambuilder.deleteCharAt(parambuilder.length()-1);  
             }  
-            parambuilder.deleteCharAt(parambuilder.length()-1);  
-        }  
-        byte[] data = parambuilder.toString().getBytes();  
+            data = parambuilder.toString().getBytes();  
+        }
         URL url = new URL(path);  
         HttpURLConnection conn = (HttpURLConnection)url.openConnection();  
         //设置允许对外发送请求参数  
@@ -412,14 +456,31 @@ public class HttpRequestUtil
         conn.setRequestProperty("Accept-Language", "zh-CN");  
         conn.setRequestProperty("User-Agent", "Mozilla/4.0 (compatible; MSIE 8.0; Windows NT 5.2; Trident/4.0; .NET CLR 1.1.4322; .NET CLR 2.0.50727; .NET CLR 3.0.04506.30; .NET CLR 3.0.4506.2152; .NET CLR 3.5.30729)");  
         conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");  
-        conn.setRequestProperty("Content-Length", String.valueOf(data.length));  
         conn.setRequestProperty("Connection", "Keep-Alive");  
           
         //发送参数  
-        DataOutputStream outStream = new DataOutputStream(conn.getOutputStream());  
-        outStream.write(data);//把参数发送出去  
-        outStream.flush();  
-        outStream.close();  
+        if (gzip) {
+            Writer writer = new OutputStreamWriter(openRequestBody(conn, true), "ISO-8859-1");
+            if (params != null) {
+                boolean first = true;
+                for (Map.Entry<String, String> entry : params.entrySet()) {
+                    if (!first) {
+                        writer.write('&');
+                    }
+                    first = false;
+                    writer.write(entry.getKey());
+                    writer.write('=');
+                    writer.write(URLEncoder.encode(entry.getValue(), encode));
+                }
+            }
+            writer.close();
+        } else {
+            conn.setRequestProperty("Content-Length", String.valueOf(data.length));  
+            DataOutputStream outStream = new DataOutputStream(conn.getOutputStream());  
+            outStream.write(data);//把参数发送出去  
+            outStream.flush();  
+            outStream.close();  
+        }
         if(conn.getResponseCode()==200)  
         {  
             return readStream(conn.getInputStream());  
@@ -427,6 +488,19 @@ public class HttpRequestUtil
         return null;  
     }  
       
+    /**
+     * 打开请求体的输出流。gzip时长度未知，使用chunked方式边压缩边发送
+     */
+    private static OutputStream openRequestBody(HttpURLConnection conn, boolean gzip) throws IOException
+    {
+        if (!gzip) {
+            return conn.getOutputStream();
+        }
+        conn.setRequestProperty("Content-Encoding", "gzip");
+        conn.setChunkedStreamingMode(0);
+        return new GZIPOutputStream(conn.getOutputStream(), 8192);
+    }
+
     /**  
      * 读取流  
      * @param inStream  
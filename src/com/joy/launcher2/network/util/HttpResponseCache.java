@@ -0,0 +1,258 @@
+package com.joy.launcher2.network.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import android.util.Log;
+
+import com.joy.launcher2.util.Util;
+
+/**
+ * 接口响应的磁盘缓存：保存响应体和校验信息（ETag / Last-Modified），
+ * 下次请求带上If-None-Match / If-Modified-Since，服务器返回304时直接读缓存
+ */
+public class HttpResponseCache {
+
+	private static final String TAG = "HttpResponseCache";
+	private static final boolean DEBUG = false;
+
+	private static final String SUFFIX_BODY = ".body";
+	private static final String SUFFIX_META = ".meta";
+	private static final String SUFFIX_TMP = ".tmp";
+	// 最多保存的响应个数，超出后删除最久没写过的
+	private static final int MAX_ENTRIES = 200;
+
+	private final File mDir;
+	// 已提交的key，最早提交的在前；第一次提交时扫描目录建立，之后只在内存中维护
+	private LinkedHashSet<String> mKeys;
+
+	public HttpResponseCache(File dir) {
+		mDir = dir;
+	}
+
+	/**
+	 * 缓存的一个响应
+	 */
+	public static class Entry {
+		public String etag;
+		public String lastModified;
+		File body;
+
+		public InputStream getBody() throws IOException {
+			return new FileInputStream(body);
+		}
+	}
+
+	/**
+	 * 缓存key，不含每次都变的ts、sign等参数
+	 */
+	public static String getKey(Protocal protocal) {
+		return Util.md5Encode(protocal.getHost() + protocal.getGetData());
+	}
+
+	/**
+	 * 获取缓存，没有时返回null
+	 */
+	public Entry get(String key) {
+		File body = new File(mDir, key + SUFFIX_BODY);
+		File meta = new File(mDir, key + SUFFIX_META);
+		if (!body.exists() || !meta.exists()) {
+			return null;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(meta), "UTF-8"));
+			Entry entry = new Entry();
+			entry.etag = emptyToNull(reader.readLine());
+			entry.lastModified = emptyToNull(reader.readLine());
+			entry.body = body;
+			return entry;
+		} catch (IOException e) {
+			if (DEBUG) Log.e(TAG, "---get " + key + " : " + e);
+			return null;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * 包装网络流：读的同时写入缓存，读到结尾时才提交，中途关闭则丢弃
+	 */
+	public InputStream put(String key, String etag, String lastModified, InputStream in) {
+		if (!mDir.exists() && !mDir.mkdirs()) {
+			return in;
+		}
+		try {
+			File tmp = File.createTempFile(key, SUFFIX_TMP, mDir);
+			return new CacheWriteInputStream(in, key, etag, lastModified, tmp);
+		} catch (IOException e) {
+			if (DEBUG) Log.e(TAG, "---put " + key + " : " + e);
+			return in;
+		}
+	}
+
+	private synchronized void commit(String key, CacheWriteInputStream in) {
+		File meta = new File(mDir, key + SUFFIX_META);
+		File metaTmp = new File(mDir, key + SUFFIX_META + SUFFIX_TMP);
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(metaTmp), "UTF-8");
+			writer.write(in.mEtag == null ? "" : in.mEtag);
+			writer.write('\n');
+			writer.write(in.mLastModified == null ? "" : in.mLastModified);
+			writer.write('\n');
+			writer.close();
+			writer = null;
+			// 先换响应体再换校验信息，中途崩溃最多是校验信息不匹配，下次会重新下载
+			if (in.commit(new File(mDir, key + SUFFIX_BODY)) && metaTmp.renameTo(meta)) {
+				trim(key);
+				return;
+			}
+		} catch (IOException e) {
+			if (DEBUG) Log.e(TAG, "---commit " + key + " : " + e);
+			in.abort();
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		// 没提交成功的响应整个删除，不留下只有一半的文件
+		metaTmp.delete();
+		meta.delete();
+		new File(mDir, key + SUFFIX_BODY).delete();
+		if (mKeys != null) {
+			mKeys.remove(key);
+		}
+	}
+
+	/**
+	 * 记下刚提交的key，超过MAX_ENTRIES时按提交顺序删除最早的响应（响应体和校验信息一起删）
+	 */
+	private void trim(String committed) {
+		if (mKeys == null) {
+			mKeys = loadKeys();
+		}
+		mKeys.remove(committed);
+		mKeys.add(committed);
+		Iterator<String> it = mKeys.iterator();
+		while (mKeys.size() > MAX_ENTRIES && it.hasNext()) {
+			String key = it.next();
+			it.remove();
+			new File(mDir, key + SUFFIX_META).delete();
+			new File(mDir, key + SUFFIX_BODY).delete();
+		}
+	}
+
+	/**
+	 * 扫描目录中已有的响应，按校验信息的修改时间排序；正在写的临时文件不动，
+	 * 只有响应体或只有校验信息的（上次提交到一半）删除
+	 */
+	private LinkedHashSet<String> loadKeys() {
+		LinkedHashSet<String> keys = new LinkedHashSet<String>();
+		File[] files = mDir.listFiles();
+		if (files == null) {
+			return keys;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long l = lhs.lastModified();
+				long r = rhs.lastModified();
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(SUFFIX_META)) {
+				String key = name.substring(0, name.length() - SUFFIX_META.length());
+				if (new File(mDir, key + SUFFIX_BODY).exists()) {
+					keys.add(key);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(SUFFIX_BODY)
+					&& !keys.contains(name.substring(0, name.length() - SUFFIX_BODY.length()))) {
+				file.delete();
+			}
+		}
+		return keys;
+	}
+
+	private static String emptyToNull(String s) {
+		return (s == null || s.length() == 0) ? null : s;
+	}
+
+	/**
+	 * 读到结尾时自动提交到缓存，中途关闭则丢弃
+	 */
+	private class CacheWriteInputStream extends WriteThroughInputStream {
+		private final String mKey;
+		private final String mEtag;
+		private final String mLastModified;
+		private boolean mDone;
+
+		CacheWriteInputStream(InputStream in, String key, String etag, String lastModified, File tmp) throws IOException {
+			super(in, tmp);
+			mKey = key;
+			mEtag = etag;
+			mLastModified = lastModified;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1) {
+				finish();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			int n = super.read(buffer, offset, count);
+			if (n == -1) {
+				finish();
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!mDone) {
+				mDone = true;
+				abort();
+			}
+			super.close();
+		}
+
+		private void finish() {
+			if (!mDone) {
+				mDone = true;
+				commit(mKey, this);
+			}
+		}
+	}
+}
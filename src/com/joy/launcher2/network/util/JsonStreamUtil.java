@@ -0,0 +1,82 @@
+package com.joy.launcher2.network.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Map;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+/**
+ * 流式json解析的工具方法：直接从流中按字段读出数据，不生成中间的String和JSONObject
+ */
+public class JsonStreamUtil {
+
+	/**
+	 * UTF-8读取，跳过开头的BOM（JsonReader不认BOM）
+	 */
+	public static JsonReader newReader(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		reader.mark(1);
+		if (reader.read() != '\ufeff') {
+			reader.reset();
+		}
+		JsonReader jsonReader = new JsonReader(reader);
+		// 与org.json一样宽松（允许注释、单引号等）
+		jsonReader.setLenient(true);
+		return jsonReader;
+	}
+
+	/**
+	 * 读取int，null时返回0（数字形式的字符串也可以）
+	 */
+	public static int nextInt(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return 0;
+		}
+		return reader.nextInt();
+	}
+
+	/**
+	 * 读取字符串，null时返回null（数字、布尔值转成字符串）
+	 */
+	public static String nextString(JsonReader reader) throws IOException {
+		JsonToken token = reader.peek();
+		if (token == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		if (token == JsonToken.BOOLEAN) {
+			return String.valueOf(reader.nextBoolean());
+		}
+		return reader.nextString();
+	}
+
+	/**
+	 * 解析成功后读完剩下的数据（JsonReader读到最后一个括号就停下），
+	 * 流读到结尾时响应缓存才会保存。解析失败时不要调用，以免缓存错误的数据
+	 */
+	public static void drain(InputStream in) {
+		byte[] buffer = new byte[4096];
+		try {
+			while (in.read(buffer) != -1) {
+			}
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * map中是否包含所有key
+	 */
+	public static boolean containsAll(Map<String, Object> map, String... keys) {
+		for (String key : keys) {
+			if (!map.containsKey(key)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,286 @@
+package com.joy.launcher2.network.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.util.Log;
+
+import com.joy.launcher2.util.Constants;
+
+/**
+ * 网络统计：按接口（op + 主机）记录请求数、耗时分布、收发字节、gzip压缩率、重连次数和失败原因，
+ * 通过{@link #dump(PrintWriter)}（dumpsys）或{@link #dumpState()}（logcat）输出
+ */
+public class NetworkStats {
+
+	private static final String TAG = "NetworkStats";
+
+	// 耗时分布的上限（毫秒），最后一档为超过最大值
+	private static final long[] LATENCY_BUCKETS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+	private static final Pattern OP_PATTERN = Pattern.compile("[?&]op=(\\d+)");
+
+	private static final NetworkStats sInstance = new NetworkStats();
+
+	// 当前线程读完或关闭的响应的网络字节数累加到这里（如预取任务的流量），null时不累加
+	private static final ThreadLocal<AtomicLong> sThreadCounter = new ThreadLocal<AtomicLong>();
+
+	private final Map<String, Endpoint> mEndpoints = new HashMap<String, Endpoint>();
+
+	private NetworkStats() {
+	}
+
+	public static NetworkStats getInstance() {
+		return sInstance;
+	}
+
+	/**
+	 * 之后在当前线程读完或关闭的响应，网络字节数累加到counter；传null停止
+	 */
+	public static void setThreadCounter(AtomicLong counter) {
+		if (counter == null) {
+			sThreadCounter.remove();
+		} else {
+			sThreadCounter.set(counter);
+		}
+	}
+
+	/**
+	 * 一个接口的统计
+	 */
+	private static class Endpoint {
+		final String key;
+		int requests;
+		int notModified;
+		int retries;
+		// 合并到别的相同请求上、没有单独联网的次数
+		int coalesced;
+		long bytesOut;
+		// 网络上收到的字节（gzip压缩后）
+		long bytesIn;
+		// gzip响应的压缩前后字节，用来算压缩率
+		long gzipWireBytes;
+		long gzipDecodedBytes;
+		final long[] latency = new long[LATENCY_BUCKETS.length + 1];
+		long latencyTotal;
+		final Map<String, Integer> failures = new HashMap<String, Integer>();
+
+		Endpoint(String key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * 统计用的key：op编号@主机（没有op时用"-"）
+	 */
+	public static String getKey(Protocal protocal) {
+		String host = protocal.getHost() == null ? Constants.BASE_URL : protocal.getHost();
+		String op = "-";
+		if (protocal.getGetData() != null) {
+			Matcher matcher = OP_PATTERN.matcher(protocal.getGetData());
+			if (matcher.find()) {
+				op = matcher.group(1);
+			}
+		}
+		return op + "@" + host;
+	}
+
+	private Endpoint getEndpoint(String key) {
+		Endpoint endpoint = mEndpoints.get(key);
+		if (endpoint == null) {
+			endpoint = new Endpoint(key);
+			mEndpoints.put(key, endpoint);
+		}
+		return endpoint;
+	}
+
+	public synchronized void recordRequest(String key, long bytesOut) {
+		Endpoint endpoint = getEndpoint(key);
+		endpoint.requests++;
+		endpoint.bytesOut += bytesOut;
+	}
+
+	/**
+	 * 从发出请求到收到响应头的耗时
+	 */
+	public synchronized void recordLatency(String key, long millis) {
+		Endpoint endpoint = getEndpoint(key);
+		int i = 0;
+		while (i < LATENCY_BUCKETS.length && millis >= LATENCY_BUCKETS[i]) {
+			i++;
+		}
+		endpoint.latency[i]++;
+		endpoint.latencyTotal += millis;
+	}
+
+	public synchronized void recordNotModified(String key) {
+		getEndpoint(key).notModified++;
+	}
+
+	public synchronized void recordRetry(String key) {
+		getEndpoint(key).retries++;
+	}
+
+	public synchronized void recordCoalesced(String key) {
+		getEndpoint(key).coalesced++;
+	}
+
+	public synchronized void recordFailure(String key, String reason) {
+		Map<String, Integer> failures = getEndpoint(key).failures;
+		Integer count = failures.get(reason);
+		failures.put(reason, count == null ? 1 : count + 1);
+	}
+
+	public synchronized void recordResponseBytes(String key, long wireBytes, long decodedBytes, boolean gzip) {
+		Endpoint endpoint = getEndpoint(key);
+		endpoint.bytesIn += wireBytes;
+		if (gzip) {
+			endpoint.gzipWireBytes += wireBytes;
+			endpoint.gzipDecodedBytes += decodedBytes;
+		}
+	}
+
+	public synchronized void reset() {
+		mEndpoints.clear();
+	}
+
+	public synchronized void dump(PrintWriter writer) {
+		writer.println("Network stats (op@host):");
+		List<String> keys = new ArrayList<String>(mEndpoints.keySet());
+		Collections.sort(keys);
+		for (String key : keys) {
+			Endpoint e = mEndpoints.get(key);
+			int responses = 0;
+			for (long count : e.latency) {
+				responses += count;
+			}
+			writer.println("  " + e.key);
+			writer.println("    requests=" + e.requests + " responses=" + responses
+					+ " notModified=" + e.notModified + " coalesced=" + e.coalesced + " retries=" + e.retries
+					+ " avgLatency=" + (responses > 0 ? e.latencyTotal / responses : 0) + "ms");
+			writer.println("    bytesOut=" + e.bytesOut + " bytesIn=" + e.bytesIn
+					+ " gzipRatio=" + (e.gzipDecodedBytes > 0
+							? String.format("%.2f", (double) e.gzipWireBytes / e.gzipDecodedBytes) : "-"));
+			StringBuilder sb = new StringBuilder("    latency:");
+			for (int i = 0; i < e.latency.length; i++) {
+				sb.append(i < LATENCY_BUCKETS.length ? " <" + LATENCY_BUCKETS[i] : " >=" + LATENCY_BUCKETS[i - 1])
+				.append('=').append(e.latency[i]);
+			}
+			writer.println(sb.toString());
+			if (!e.failures.isEmpty()) {
+				writer.println("    failures=" + e.failures);
+			}
+		}
+	}
+
+	/**
+	 * 输出到logcat，供Launcher.dumpState调用
+	 */
+	public void dumpState() {
+		StringWriter sw = new StringWriter();
+		PrintWriter writer = new PrintWriter(sw);
+		dump(writer);
+		writer.flush();
+		for (String line : sw.toString().split("\n")) {
+			Log.d(TAG, line);
+		}
+	}
+
+	/**
+	 * 计数流：统计读了多少字节
+	 */
+	static class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int n = super.read(buffer, offset, length);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+
+	/**
+	 * 包装返回给调用者的流：读完或关闭时记录收到的字节数（网络字节取自wire）
+	 */
+	static class MeteredInputStream extends CountingInputStream {
+		private final String mKey;
+		private final CountingInputStream mWire;
+		private final boolean mGzip;
+		private boolean mRecorded;
+
+		MeteredInputStream(InputStream in, String key, CountingInputStream wire, boolean gzip) {
+			super(in);
+			mKey = key;
+			mWire = wire;
+			mGzip = gzip;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1) {
+				record();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int n = super.read(buffer, offset, length);
+			if (n == -1) {
+				record();
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			record();
+			super.close();
+		}
+
+		private void record() {
+			if (!mRecorded) {
+				mRecorded = true;
+				getInstance().recordResponseBytes(mKey, mWire.count, count, mGzip);
+				AtomicLong counter = sThreadCounter.get();
+				if (counter != null) {
+					counter.addAndGet(mWire.count);
+				}
+			}
+		}
+	}
+}
@@ -20,11 +20,17 @@ public class Protocal {
 	private int soTimeout = -1;
 	// 是否启动重连机制
 	private boolean reTry = true;
+	// 是否使用响应缓存（ETag / Last-Modified 条件请求）
+	private boolean cacheable = false;
 	
 	boolean isBreakPoint = false;
 	
 	private int startPos = -1;
 	private int endPos = -1;
+	// 为true时请求[startPos, endPos]（endPos包括在内，-1表示到文件结尾），用于分段下载
+	private boolean boundedRange = false;
+	// 服务器Content-Range中的文件总长度（bytes a-b/total），未知时为-1
+	private long totalLength = -1;
 	public int getStartPos() {
 		return startPos;
 	}
@@ -39,6 +45,22 @@ public class Protocal {
 		this.endPos = endPos;
 	}
 	
+	public boolean isBoundedRange() {
+		return boundedRange;
+	}
+
+	public void setBoundedRange(boolean boundedRange) {
+		this.boundedRange = boundedRange;
+	}
+	
+	public long getTotalLength() {
+		return totalLength;
+	}
+
+	public void setTotalLength(long totalLength) {
+		this.totalLength = totalLength;
+	}
+
 	public boolean getIsBreakPoint()
 	{
 		return isBreakPoint;
@@ -129,4 +151,19 @@ public class Protocal {
 		this.reTry = reTry;
 	}
 
+	/**
+	 * @return the cacheable
+	 */
+	public boolean isCacheable() {
+		return cacheable;
+	}
+
+	/**
+	 * @param cacheable
+	 *            the cacheable to set
+	 */
+	public void setCacheable(boolean cacheable) {
+		this.cacheable = cacheable;
+	}
+
 }
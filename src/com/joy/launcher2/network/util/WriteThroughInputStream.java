@@ -0,0 +1,139 @@
+package com.joy.launcher2.network.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 边读边写：读到的数据同时写入临时文件，读完后调用{@link #commit(File)}换成正式文件，
+ * 没读完或写失败则丢弃临时文件，正式文件不会出现半截数据。
+ * close()只关闭网络流，临时文件由commit、complete或abort处理
+ */
+public class WriteThroughInputStream extends FilterInputStream {
+
+	private final File mTmp;
+	private OutputStream mOut;
+	private boolean mEof;
+	private boolean mFailed;
+
+	public WriteThroughInputStream(InputStream in, File tmp) throws IOException {
+		super(in);
+		mTmp = tmp;
+		mOut = new FileOutputStream(tmp);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b == -1) {
+			mEof = true;
+		} else {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int count) throws IOException {
+		int n = super.read(buffer, offset, count);
+		if (n == -1) {
+			mEof = true;
+		} else {
+			write(buffer, offset, n);
+		}
+		return n;
+	}
+
+	/**
+	 * 跳过的数据也要写进文件，所以改为读取（解码器会跳过图片中不需要的段）
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		byte[] buffer = new byte[(int) Math.min(n, 4096)];
+		long skipped = 0;
+		while (skipped < n) {
+			int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+			if (count == -1) {
+				break;
+			}
+			skipped += count;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * 读完剩下的数据（只写文件），用于解析器没读到结尾的情况
+	 */
+	public void drain() throws IOException {
+		byte[] buffer = new byte[4096];
+		while (read(buffer, 0, buffer.length) != -1) {
+		}
+	}
+
+	/**
+	 * 读到了结尾且全部写入成功时，把临时文件换成target
+	 * @return 是否成功
+	 */
+	public boolean commit(File target) {
+		if (complete() && mTmp.renameTo(target)) {
+			return true;
+		}
+		mTmp.delete();
+		return false;
+	}
+
+	/**
+	 * 关闭临时文件，不改名（由调用者提交，如{@link com.joy.launcher2.cache.DiskLruIndex}）。
+	 * 没读到结尾或写失败时删除临时文件
+	 * @return 临时文件是否完整
+	 */
+	public boolean complete() {
+		closeOutput();
+		if (mEof && !mFailed) {
+			return true;
+		}
+		mTmp.delete();
+		return false;
+	}
+
+	/**
+	 * 丢弃临时文件
+	 */
+	public void abort() {
+		closeOutput();
+		mTmp.delete();
+	}
+
+	private void write(byte[] buffer, int offset, int count) {
+		if (mOut == null || mFailed) {
+			return;
+		}
+		try {
+			mOut.write(buffer, offset, count);
+		} catch (IOException e) {
+			mFailed = true;
+		}
+	}
+
+	private void closeOutput() {
+		if (mOut != null) {
+			try {
+				mOut.close();
+			} catch (IOException e) {
+				mFailed = true;
+			}
+			mOut = null;
+		}
+	}
+}
@@ -17,6 +17,7 @@
 package com.joy.launcher2.preference;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
 import android.app.AlertDialog;
@@ -50,6 +51,7 @@ import com.joy.launcher2.network.impl.Service;
 import com.joy.launcher2.network.impl.Service.CallBack;
 import com.joy.launcher2.network.util.FormFile;
 import com.joy.launcher2.network.util.HttpRequestUtil;
+import com.joy.launcher2.util.Constants;
 
 public class Preferences extends PreferenceActivity
         implements SharedPreferences.OnSharedPreferenceChangeListener,
@@ -353,14 +355,35 @@ public class Preferences extends PreferenceActivity
 			params.put("sign", ProtocalFactory.getSign(randomTS, randomString));
 			params.put("sjz", ProtocalFactory.getSjz(randomString));*/
 			File file = getSharedPrefsFile(PreferencesProvider.PREFERENCES_BACKUP);
+			// 默认不压缩；配置为压缩上传时，失败后不压缩再传一次
+			if(Constants.BACKUP_GZIP)
+			{
+				success = upload(channel, file, true);
+			}
+			if(!success)
+			{
+				success = upload(channel, file, false);
+			}
+		}
+		
+		private boolean upload(String channel, File file, boolean gzip) {
+			// FormFile读完文件流后不能再用，每次上传新建
 			FormFile formFile = new FormFile(PreferencesProvider.PREFERENCES_BACKUP + ".xml", file, "xml", "text/xml");
 			try {
 				//success = HttpRequestUtil.post(ProtocalFactory.HOST_UPLOAD, params, formFile);
-				success = HttpRequestUtil.httpPostWithAnnex(ProtocalFactory.HOST_UPLOAD, channel, new FormFile[]{formFile});
+				return HttpRequestUtil.httpPostWithAnnex(ProtocalFactory.HOST_UPLOAD, channel, new FormFile[]{formFile}, gzip);
 			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				Log.e(TAG, "upload backup failed, gzip=" + gzip, e);
+			} finally {
+				if(formFile.getInStream() != null)
+				{
+					try {
+						formFile.getInStream().close();
+					} catch (IOException e) {
+					}
+				}
 			}
+			return false;
 		}
 	}
 	//end
@@ -9,6 +9,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
 import com.joy.launcher2.LauncherApplication;
+import com.joy.launcher2.download.ProgressJournal;
 /**
  * 数据库相关操作的类
  * 
@@ -53,11 +54,24 @@ public class PushDownLoadDBHelper {
 	private DatabaseHelper mDBHelper;
  
 	private SQLiteDatabase db;
+
+	// 下载中的进度先放在这里，定时或状态变化时一起写入
+	private final ProgressJournal mJournal;
 	
 	static PushDownLoadDBHelper dbHelper;
 	public PushDownLoadDBHelper(Context ctx) {
 		context = ctx;
 		mDBHelper = new DatabaseHelper(context);
+		mJournal = new ProgressJournal(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+	}
+
+	private static String getKey(int id) {
+		return id + ":";
 	}
 
 	static public PushDownLoadDBHelper getInstances() {
@@ -99,23 +113,41 @@ public class PushDownLoadDBHelper {
 	}
 
 	/**
-	 * 打开数据库
+	 * 打开数据库，打开后一直保持打开，不再每次操作都打开、关闭
 	 * 
 	 * @return
 	 * @throws SQLException
 	 */
 	public synchronized SQLiteDatabase open() throws SQLException {
 		
-		db = mDBHelper.getWritableDatabase();
+		if (db == null || !db.isOpen()) {
+			db = mDBHelper.getWritableDatabase();
+		}
 
 		return db;
 	}
 
 	/**
-	 * 关闭数据库
+	 * 关闭数据库，关闭前写入还没写入的进度
 	 */
 	public synchronized void close() throws SQLException {
+		flush();
 		mDBHelper.close();
+		db = null;
+	}
+
+	/**
+	 * 把还没写入的进度在一个事务中写入数据库（定时调用，下载结束时也调用）
+	 */
+	public synchronized void flush() {
+		if (mJournal.isEmpty()) {
+			return;
+		}
+		try {
+			mJournal.flush(open());
+		} catch (SQLException e) {
+			Log.e("PushDownloadService", "---flush error " + e);
+		}
 	}
 
 	/**
@@ -123,6 +155,7 @@ public class PushDownLoadDBHelper {
 	 */
 	public synchronized void insert(PushDownloadInfo info) {
 
+		flush();
 		open();
 		ContentValues initialValues = new ContentValues();
 		initialValues.put(ID, info.getId());
@@ -137,8 +170,6 @@ public class PushDownLoadDBHelper {
 		initialValues.put(DOWNLOAD_TYPE, info.getDownloadType());
 		
 		db.insert(DATABASE_TABLE, null, initialValues);
-		
-		close();
 	}
 	/**
 	 * 删除数据,根据指定id删除
@@ -151,16 +182,15 @@ public class PushDownLoadDBHelper {
 	 */
 	public synchronized void delete(int id) {
 
+		 mJournal.remove(getKey(id));
 		 open();
 		 db.delete(DATABASE_TABLE, ID + "=" + id, null);
-		 close();
 	}
 
 	/**
-	 * 更改数据，根据指定id更改
+	 * 更改数据，根据指定id更改，没有时插入（延迟写入，同一个id只写最新的）
 	 */
-	public synchronized void update(PushDownloadInfo info) {
-		open();
+	public void update(PushDownloadInfo info) {
 		ContentValues initialValues = new ContentValues();
 		initialValues.put(ID, info.getId());
 		initialValues.put(NAME, info.getFilename());
@@ -173,16 +203,13 @@ public class PushDownLoadDBHelper {
 		initialValues.put(TITLE, info.getTitle());
 		initialValues.put(DOWNLOAD_TYPE, info.getDownloadType());
 		
-		int row = db.update(DATABASE_TABLE, initialValues, ID + "="+ info.getId(), null);
-		if(row <= 0)
-		{
-			db.insert(DATABASE_TABLE, null, initialValues);
-		}
-		close();
+		mJournal.put(getKey(info.getId()), DATABASE_TABLE, ID + "="+ info.getId(), initialValues, true);
 	}
 
 	public synchronized Cursor getAll() {
 
+		flush();
+		open();
 		Cursor cur = db.query(DATABASE_TABLE, null, null, null, null, null,null);
 		return cur;
 	}
@@ -194,6 +221,7 @@ public class PushDownLoadDBHelper {
 	 */
 	public synchronized PushDownloadInfo get(int id){
 		PushDownloadInfo info = null;
+		flush();
 		open();
 		Cursor cur = db.query( DATABASE_TABLE,null, ID + " = " + id, null, null, null, null);
 		Log.e("PushDownloadService", "-----dbHelper---> "+cur.getCount());
@@ -212,7 +240,6 @@ public class PushDownLoadDBHelper {
 
 			Log.e("PushDownloadService", "-----dbHelper---> "+666);
 		}
-		close();
 
 		return info;
 	}
@@ -12,6 +12,7 @@ import android.util.Log;
 import android.view.View;
 
 import com.joy.launcher2.LauncherApplication;
+import com.joy.launcher2.download.DownloadSink;
 import com.joy.launcher2.network.impl.Service;
 import com.joy.launcher2.util.Constants;
 import com.joy.launcher2.util.Util;
@@ -79,7 +80,7 @@ public class PushDownloadManager {
 
 		RandomAccessFile rf = null;
 		try {
-			rf = new RandomAccessFile(file, "rwd");
+			rf = new RandomAccessFile(file, "rw");
 			rf.setLength(dInfo.getFilesize()*1024);
 			rf.close();
 		} catch (Exception e) {
@@ -115,24 +116,23 @@ public class PushDownloadManager {
 		}
 		public void run() {
 			InputStream is = null;
-			RandomAccessFile randomAccessFile = null;
+			DownloadSink sink = null;
 			try {
 				int startPos = downinfo.getCompletesize()*1024;
 				int endPos = downinfo.getFilesize()*1024;
 				is = mService.getPushDownLoadInputStream(downinfo.getUrl(), startPos, endPos);
 				boolean isBreakPoint = mService.getIsBreakPoint(downinfo.getUrl());
-				randomAccessFile = new RandomAccessFile(file, "rwd");
 				if(!isBreakPoint)
 				{
 					downinfo.setCompletesize(0);
 					startPos = 0;
 				}
-				// 从断点处 继续下载（初始为0）
-				randomAccessFile.seek(startPos);
 				if (is == null) {
 					return;
 				}
-				final int length = 1024;
+				// 从断点处 继续下载（初始为0）
+				sink = new DownloadSink(file, startPos);
+				final int length = 1024*8;
 				byte[] b = new byte[length];
 				int len = -1;
 				int pool = 0;
@@ -147,20 +147,19 @@ public class PushDownloadManager {
 						return;
 					}
 
-					randomAccessFile.write(b, 0, len);
+					sink.write(b, 0, len);
 					
 					pool += len;
 					if (pool >= 100 * 1024) { // 100kb写一次数据库
 						Log.e(TAG, "-----下载  未完成----" + len);
-						PushDownLoadDBHelper.getInstances().update(downinfo); //暂不支持断点下载
+						// 数据写到存储上之后才保存进度
+						sink.checkpoint();
+						PushDownLoadDBHelper.getInstances().update(downinfo);
 						pool = 0;
 						callback.downloadUpdate();// 刷新一次
 					}
 					tempLen += len;
 					downinfo.setCompletesize(tempLen/1024);
-					if (pool != 0) {
-						//PushDownLoadDBHelper.getInstances().update(downinfo);/// 暂不支持断点下载
-					}
 				}
 				long endtime = System.currentTimeMillis();
 				Log.e(TAG, "-----downinfo time--->1 " + (endtime - startime));
@@ -171,7 +170,17 @@ public class PushDownloadManager {
 				// end.countDown();
 				Log.e(TAG, "---over----");
 
+				if (sink != null) {
+					try {
+						sink.close();
+					} catch (IOException e) {
+						// 最后一次checkpoint之后的数据可能没有写入，退回到checkpoint
+						downinfo.setCompletesize((int) (sink.getCheckpointPosition() / 1024));
+					}
+				}
 				PushDownLoadDBHelper.getInstances().update(downinfo);
+				// 下载结束时立即写入进度
+				PushDownLoadDBHelper.getInstances().flush();
 				if (downinfo.getCompletesize() >= downinfo.getFilesize()) {
 					Log.i(TAG, "----finsh----");
 					if(callback != null){
@@ -188,12 +197,6 @@ public class PushDownloadManager {
 					} catch (IOException e) {
 					}
 				}
-				if (randomAccessFile != null) {
-					try {
-						randomAccessFile.close();
-					} catch (IOException e) {
-					}
-				}
 			}
 		}
 	}
@@ -13,6 +13,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.joy.launcher2.R;
+import com.joy.launcher2.network.impl.ProtocalFactory;
+import com.joy.launcher2.network.util.HostHealth;
 import com.joy.launcher2.push.PushDownloadManager.PushCallBack;
 import com.joy.launcher2.push.PushDownloadManager.PushDownLoadTask;
 import com.joy.launcher2.util.Constants;
@@ -340,8 +342,22 @@ public class PushService extends Service{
 			{
 				if(DEBUG)Log.e(TAG, "activate launcher start");
 				int count = 0;
+				String pushHost = HostHealth.getHost(ProtocalFactory.HOST_PUSH);
 				while(count < 3 && !activate)
 				{
+					if(count > 0)
+					{
+						//主机熔断中不再重试，否则退避后重试
+						if(!HostHealth.getInstance().isAvailable(pushHost))
+						{
+							break;
+						}
+						try {
+							Thread.sleep(HostHealth.getInstance().getRetryDelay(count));
+						} catch (InterruptedException e) {
+							break;
+						}
+					}
 					count++;
 					try {
 						activate = com.joy.launcher2.network.impl.Service.getInstance().activateLauncher();
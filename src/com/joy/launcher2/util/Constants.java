@@ -33,6 +33,9 @@ public class Constants {
 		//每次获取apk列表个数
 		public static final int APK_LIST_NUM = 8;
 		
+		//备份上传是否gzip压缩请求体（Content-Encoding: gzip），确认备份服务器支持解压后才能打开
+		public static final boolean BACKUP_GZIP = false;
+		
 		//add by huangming for online wallpaper.
 		public final static String ONLINE = "online";
 		public final static String THUMBNAIL = "_thumbnail";	
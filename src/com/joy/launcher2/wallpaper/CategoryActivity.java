@@ -103,7 +103,7 @@ public class CategoryActivity extends Activity implements ImageLoader.Callback,
 		switch(scrollState)
 		{
 		    case OnScrollListener.SCROLL_STATE_FLING:
-		    	imageLoader.lock();
+		    	imageLoader.pause();
 		    	break;
 		    case OnScrollListener.SCROLL_STATE_IDLE:
 		    	if(view.getLastVisiblePosition() == view.getCount() - 1)
@@ -112,10 +112,10 @@ public class CategoryActivity extends Activity implements ImageLoader.Callback,
 				    		previousPageIndex++;
 				    		imageLoader.parseJSON(ACTIVITY_TYPE, categoryType, previousPageIndex);
 		        }
-		    	imageLoader.unlock();
+		    	imageLoader.resume();
 		    	break;
 		    case OnScrollListener.SCROLL_STATE_TOUCH_SCROLL:
-		    	imageLoader.lock();
+		    	imageLoader.pause();
 		    	break;
 			default:
 				break;
@@ -155,7 +155,7 @@ public class CategoryActivity extends Activity implements ImageLoader.Callback,
 		{
 			categoryGridView.setAdapter(new SimpleAdapter(getLayoutInflater(),wis, imageLoader));
 		}
-		imageLoader.unlock();
+		imageLoader.resume();
 	}
 
 	@Override
@@ -220,7 +220,7 @@ public class CategoryActivity extends Activity implements ImageLoader.Callback,
 	protected void onResume() {
 		// TODO Auto-generated method stub
 		super.onResume();
-		if(imageLoader != null)imageLoader.unlock();
+		if(imageLoader != null)imageLoader.resume();
 		if(categoryGridView != null && categoryGridView.getAdapter() instanceof SimpleAdapter)
 		{
 			((SimpleAdapter)categoryGridView.getAdapter()).notifyDataSetChanged();
@@ -7,22 +7,28 @@ import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONObject;
 
+import com.joy.launcher2.cache.BitmapPool;
 import com.joy.launcher2.cache.ImageMemoryCache;
-import com.joy.launcher2.cache.JsonFile;
 import com.joy.launcher2.cache.UnLimitedImageFileCache;
+import com.joy.launcher2.cache.WallpaperCatalog;
 import com.joy.launcher2.network.handler.WallpaperHandler;
+import com.joy.launcher2.network.impl.PrefetchScheduler;
 import com.joy.launcher2.network.impl.Service;
 import com.joy.launcher2.network.util.ClientHttp;
 import com.joy.launcher2.util.Constants;
@@ -51,7 +57,10 @@ public class ImageLoader {
 	private static ImageLoader mInstance;
 	private UnLimitedImageFileCache mDiscCache;
 	private ImageMemoryCache mMemoryCache;
-	private boolean mAllowTask = true;
+	// 内存缓存淘汰的缩略图，解码同尺寸的图片时复用
+	private BitmapPool mBitmapPool;
+	// 滑动中暂停：只显示内存缓存中的图片，读文件和联网的任务等停下来再执行
+	private volatile boolean mAllowTask = true;
 	private ClientHttp mClientHttp;
 	private Map<String, ImageView> mImageMap;
 	private final static String TAG = "ImageLoader";
@@ -61,7 +70,19 @@ public class ImageLoader {
 	private Handler mHandler = new Handler();
 	private ExecutorService mShortTimeExecutors;
 	private ExecutorService mLongTimeExecutors;
-	private JsonFile mJsonFile;
+	// 图片加载任务：后提交的先执行（滑动时最后绑定的就是当前可见的格子）
+	private ThreadPoolExecutor mDiskLoadExecutors;
+	private ThreadPoolExecutor mNetworkLoadExecutors;
+	private final AtomicLong mLoadSequence = new AtomicLong();
+	// ImageView.hashCode() -> 还没开始的加载任务，ImageView重新绑定时取消
+	private final Map<Integer, LoadAndDisplayImageTask> mPendingTasks = new HashMap<Integer, LoadAndDisplayImageTask>();
+	// 同时联网下载的图片数
+	private final static int MAX_NETWORK_LOADS = 3;
+	// 排队等待联网的图片数上限，超过时丢弃最早提交的（已滑出屏幕）
+	private final static int MAX_PENDING_NETWORK_LOADS = 32;
+	private WallpaperCatalog mCatalog;
+	// 显示过WallpaperDrawable的ImageView，只在主线程访问；判断淘汰的Bitmap是否还在显示
+	private final Map<ImageView, Boolean> mBoundViews = new WeakHashMap<ImageView, Boolean>();
 	
 	private Map<Integer, String> mCacheKey = Collections.synchronizedMap(new HashMap<Integer, String>());
 
@@ -77,20 +98,39 @@ public class ImageLoader {
 	{
 		mContext = context;
 		mAllInfos =  Collections.synchronizedMap(new HashMap<Integer, ArrayList<WallpaperInfo>>());
-		mJsonFile = new JsonFile(context);
+		mCatalog = new WallpaperCatalog(context);
 		mCategoryInfos = Collections.synchronizedList(new ArrayList<CategoryInfo>());
 	
 		int numCPU = Runtime.getRuntime().availableProcessors();
 		if(DEBUG)Log.e(TAG, " cpu num :" + numCPU);
 		mCallbacks =  Collections.synchronizedMap(new HashMap<Integer, WeakReference<Callback>>());
+		mBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 32);
 		mDiscCache = new UnLimitedImageFileCache(context);
-		mMemoryCache = new ImageMemoryCache(context);
+		mDiscCache.setBitmapPool(mBitmapPool);
+		mMemoryCache = new ImageMemoryCache(context, mBitmapPool);
+		mMemoryCache.setInUseChecker(new ImageMemoryCache.InUseChecker() {
+			
+			@Override
+			public boolean isInUse(Bitmap bitmap) {
+				return isBitmapBound(bitmap);
+			}
+		});
 		mImageMap = Collections.synchronizedMap(new HashMap<String, ImageView>());
 		mShortTimeExecutors = Executors.newSingleThreadExecutor();
 		mLongTimeExecutors = Executors.newFixedThreadPool(Math.max((numCPU - 1), 1));
+		mDiskLoadExecutors = newLoadExecutor(1);
+		mNetworkLoadExecutors = newLoadExecutor(MAX_NETWORK_LOADS);
 		mClientHttp = new ClientHttp();
 	}
 	
+	private static ThreadPoolExecutor newLoadExecutor(int threads)
+	{
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
 	public void setScreenSize(int width, int height)
 	{
 		if(screenWidth > 0 && screenHeight > 0)return;
@@ -118,34 +158,106 @@ public class ImageLoader {
 				return;
 			}
 			//image.setImageBitmap(bm);	
-			WallpaperDrawable d = new WallpaperDrawable(image.getResources(), bm);
-			//d.setBitmap(bm);
-			image.setImageDrawable(d);
+			bindBitmap(image, bm);
+		}
+		else if(mAllowTask)
+		{
+			// 没有暂停时直接加载（getView、instantiateItem中ImageView还没有添加到窗口）
+			loadAndDisplay(wi, image);
 		}
 		else
 		{
 			mImageMap.put(Integer.toString(image.hashCode()), image);
-			if(mAllowTask)
-			{
-				doTask();
-			}			
 		}		
 	}
 	
+	/**
+	 * 预览页渐进加载：先显示列表中已缓存的缩略图（urls[0]），放大显示；
+	 * thumbnailOnly为false时再加载屏幕大小的预览图替换（相邻的页面只显示缩略图，翻到时再加载预览图）。
+	 * 原图只在下载/设置壁纸时加载
+	 */
+	public void addProgressiveLoadTask(WallpaperInfo wi, ImageView image, boolean thumbnailOnly)
+	{
+		if(wi.isThumbnail || wi.url == null || wi.urls[0] == null || wi.id == Integer.MIN_VALUE
+				|| mMemoryCache.getBitmapFromCache(wi.url) != null)
+		{
+			addLoadAndDisplayTask(wi, image);
+			return;
+		}
+		prepareLoadTask(image, wi.url);
+		WallpaperInfo thumb = new WallpaperInfo();
+		thumb.id = wi.id;
+		thumb.isNative = wi.isNative;
+		thumb.isThumbnail = true;
+		thumb.url = wi.urls[0];
+		Bitmap bm = mMemoryCache.getBitmapFromCache(thumb.url);
+		if(bm != null)
+		{
+			bindBitmap(image, bm);
+		}
+		else if(mDiscCache.peekImageOnDiscCache(thumb.url, getDirFileName(thumb)))
+		{
+			mDiskLoadExecutors.execute(new PlaceholderTask(wi, thumb, image, mDiskLoadExecutors));
+		}
+		if(!thumbnailOnly)
+		{
+			addLoadAndDisplayTask(wi, image);
+		}
+	}
+	
+	/**
+	 * 加载暂停期间积攒的图片，只加载停下来后还显示在屏幕上的（已回收或滑出屏幕的ImageView不再加载）
+	 */
 	private void doTask()
 	{
-		Collection<ImageView> images = mImageMap.values();
-		for(ImageView image: images)
+		ArrayList<ImageView> images;
+		synchronized (mImageMap) {
+			images = new ArrayList<ImageView>(mImageMap.values());
+		}
+		for(final ImageView image: images)
 		{
-			if(image != null)
+			if(image == null)continue;
+			// 只移除这次判断过的，判断期间又放入的留到下次
+			String key = Integer.toString(image.hashCode());
+			synchronized (mImageMap) {
+				if(mImageMap.get(key) != image)continue;
+				mImageMap.remove(key);
+			}
+			if(image.getWindowToken() == null)
 			{
-				if(image.getTag() != null)
-				{
-					loadAndDisplay((WallpaperInfo)image.getTag(), image);
-				}
+				// 还没有添加到窗口，添加后（下一次布局）再判断
+				image.post(new Runnable() {
+					@Override
+					public void run() {
+						if(mAllowTask)
+						{
+							loadIfShown(image);
+						}
+						else
+						{
+							mImageMap.put(Integer.toString(image.hashCode()), image);
+						}
+					}
+				});
+				continue;
+			}
+			loadIfShown(image);
+		}
+	}
+	
+	/**
+	 * 暂停期间积攒的ImageView还显示在屏幕上、还绑定着同一张图片时才加载
+	 */
+	private void loadIfShown(ImageView image)
+	{
+		if(image.getTag() instanceof WallpaperInfo && image.getWindowToken() != null && image.isShown())
+		{
+			WallpaperInfo wi = (WallpaperInfo)image.getTag();
+			if(wi.url != null && wi.url.equals(getLoadingUri(image)))
+			{
+				loadAndDisplay(wi, image);
 			}
 		}
-		mImageMap.clear();
 	}
 	
 	public String getDirFileName(WallpaperInfo wi)
@@ -164,9 +276,9 @@ public class ImageLoader {
 				boolean successful = false;
 				String originalUrl = wi.urls[1];
 				try {
-					//InputStream is = Service.getInstance().getWallpaperInputStream(originalUrl);
-					Bitmap bm = Service.getInstance().getWallpaperBitmap(originalUrl, screenWidth * 2);
-					successful = mDiscCache.saveBitmapToFile(bm, mDiscCache.getNativeOriginFile(), originalUrl);
+					// 原图只用于设置壁纸(WallpaperManager.setStream)，直接保存网络数据，不解码
+					InputStream is = Service.getInstance().getWallpaperInputStream(originalUrl);
+					successful = is != null && mDiscCache.saveInputStreamToFile(is, originalUrl);
 				} catch (Exception e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
@@ -205,9 +317,12 @@ public class ImageLoader {
 		return mDiscCache.saveInputStreamToFile(is, fileName);
 	}
 	
+	/**
+	 * 主线程调用：只查已加载的索引，不访问文件系统
+	 */
 	public boolean isApplyOrDown(WallpaperInfo wi)
 	{
-		return wi.id == Integer.MIN_VALUE || mDiscCache.isImageOnDiscCache(wi.urls[1]);
+		return wi.id == Integer.MIN_VALUE || mDiscCache.peekImageOnDiscCache(wi.urls[1]);
 	}
 	
 	
@@ -244,9 +359,9 @@ public class ImageLoader {
 				}
 				
 				
-				//添加到本地json文件
-				if(DEBUG)Log.e(TAG, "apply wallpaper 2: add the info to json file.");
-				WallpaperHandler.putJsonToNative(wi, mJsonFile);
+				//添加到本地壁纸列表
+				if(DEBUG)Log.e(TAG, "apply wallpaper 2: add the info to native list.");
+				WallpaperHandler.putToNative(wi, mCatalog);
 				
 				//添加信息到native（mAllInfos）
 				if(DEBUG)Log.e(TAG, "apply wallpaper 3: add the info to mAllInfos.");
@@ -289,39 +404,177 @@ public class ImageLoader {
 		{
 			String dirFileName = getDirFileName(wi);
 			File dirFile = mDiscCache.getOrMakeFileDir(dirFileName);
-			bm = mDiscCache.getBitmapFromFileCache(dirFile, wi.url);
+			bm = mDiscCache.getBitmapFromFileCache(dirFile, wi.url, getActualWith(wi));
 		}
 		return bm;
 	}
 	
 	void loadAndDisplay(WallpaperInfo wi, ImageView image)
 	{
-		boolean isImageOnDisc = mDiscCache.isImageOnDiscCache(wi.url, getDirFileName(wi));
-		LoadAndDisplayImageTask task = new LoadAndDisplayImageTask(wi, image);
-		if(isImageOnDisc)
+		// 主线程不等待索引加载，没加载时按联网任务提交，任务中再判断是否在缓存中
+		boolean isImageOnDisc = mDiscCache.peekImageOnDiscCache(wi.url, getDirFileName(wi));
+		ThreadPoolExecutor executor = isImageOnDisc ? mDiskLoadExecutors : mNetworkLoadExecutors;
+		LoadAndDisplayImageTask task = new LoadAndDisplayImageTask(wi, image, executor);
+		synchronized (mPendingTasks) {
+			LoadAndDisplayImageTask old = mPendingTasks.put(image.hashCode(), task);
+			if(old != null)
+			{
+				old.cancel();
+			}
+		}
+		executor.execute(task);
+		if(!isImageOnDisc)
+		{
+			trimPendingLoads(executor);
+		}
+	}
+	
+	/**
+	 * 排队的联网任务太多时，丢弃最早提交的
+	 */
+	private void trimPendingLoads(ThreadPoolExecutor executor)
+	{
+		while(executor.getQueue().size() > MAX_PENDING_NETWORK_LOADS)
 		{
-			mShortTimeExecutors.execute(task);
+			LoadTask oldest = null;
+			for(Object o : executor.getQueue().toArray())
+			{
+				LoadTask t = (LoadTask) o;
+				if(oldest == null || t.sequence < oldest.sequence)
+				{
+					oldest = t;
+				}
+			}
+			if(oldest == null)break;
+			if(DEBUG)Log.e(TAG, "drop pending load : " + oldest.wi.url);
+			oldest.cancel();
+			synchronized (mPendingTasks) {
+				if(mPendingTasks.get(oldest.image.hashCode()) == oldest)
+				{
+					mPendingTasks.remove(oldest.image.hashCode());
+				}
+			}
 		}
-		else
+	}
+	
+	/**
+	 * 取消ImageView还没开始的加载任务（ImageView重新绑定了别的图片）
+	 */
+	private void cancelPendingLoad(ImageView image)
+	{
+		LoadAndDisplayImageTask old;
+		synchronized (mPendingTasks) {
+			old = mPendingTasks.remove(image.hashCode());
+		}
+		if(old != null)
 		{
-			mLongTimeExecutors.execute(task);
+			old.cancel();
 		}
 	}
 	
-	class LoadAndDisplayImageTask implements Runnable
+	/**
+	 * 图片加载任务的基类：按提交顺序倒序执行，开始前可以取消
+	 */
+	abstract class LoadTask implements Runnable, Comparable<LoadTask>
 	{
-
 		final ImageView image;
 		final WallpaperInfo wi;
+		final long sequence;
+		final ThreadPoolExecutor executor;
+		volatile boolean cancelled;
 		
-		public LoadAndDisplayImageTask(WallpaperInfo wi, ImageView image)
+		LoadTask(WallpaperInfo wi, ImageView image, ThreadPoolExecutor executor)
 		{
 			this.image = image;
 			this.wi = wi;
+			this.executor = executor;
+			this.sequence = mLoadSequence.getAndIncrement();
+		}
+		
+		void cancel()
+		{
+			cancelled = true;
+			executor.remove(this);
+		}
+		
+		@Override
+		public int compareTo(LoadTask another) {
+			// 后提交的先执行
+			return sequence > another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+		}
+	}
+	
+	/**
+	 * 预览图还没加载好时，先把列表中已缓存的缩略图放大显示
+	 */
+	class PlaceholderTask extends LoadTask
+	{
+		final WallpaperInfo thumb;
+		
+		PlaceholderTask(WallpaperInfo wi, WallpaperInfo thumb, ImageView image, ThreadPoolExecutor executor)
+		{
+			super(wi, image, executor);
+			this.thumb = thumb;
+		}
+		
+		@Override
+		public void run() {
+			if(cancelled || !wi.url.equals(getLoadingUri(image)))return;
+			Bitmap bm = mMemoryCache.getBitmapFromCache(thumb.url);
+			if(bm == null)
+			{
+				File dirFile = mDiscCache.getOrMakeFileDir(getDirFileName(thumb));
+				bm = mDiscCache.getBitmapFromFileCache(dirFile, thumb.url, getActualWith(thumb));
+				if(bm == null)return;
+				mMemoryCache.addBitmapToCache(thumb.url, bm);
+			}
+			final Bitmap finalBm = bm;
+			image.post(new Runnable() {
+				
+				@Override
+				public void run() {
+					// 预览图显示后会调用cancelTask，这时不再显示缩略图
+					if(wi.url.equals(getLoadingUri(image)))
+					{
+						bindBitmap(image, finalBm);
+					}
+				}
+			});
 		}
+	}
+	
+	class LoadAndDisplayImageTask extends LoadTask
+	{
+		
+		public LoadAndDisplayImageTask(WallpaperInfo wi, ImageView image, ThreadPoolExecutor executor)
+		{
+			super(wi, image, executor);
+		}
+		
 		@Override
 		public void run() {
-			if(checkTaskIsRunning())return;
+			synchronized (mPendingTasks) {
+				if(mPendingTasks.get(image.hashCode()) == this)
+				{
+					mPendingTasks.remove(image.hashCode());
+				}
+			}
+			if(cancelled || checkTaskIsRunning())return;
+			if(!mAllowTask)
+			{
+				// 暂停期间开始的任务放回去，停下来后如果还可见再加载
+				mImageMap.put(Integer.toString(image.hashCode()), image);
+				if(mAllowTask)
+				{
+					image.post(new Runnable() {
+						@Override
+						public void run() {
+							if(mAllowTask)doTask();
+						}
+					});
+				}
+				return;
+			}
 			Bitmap bm = null;
 			final String url = wi.url;
 			String dirFileName = getDirFileName(wi);
@@ -330,7 +583,7 @@ public class ImageLoader {
 			if(DEBUG)Log.e(TAG, url + " on " + dirFile.getPath() + " : " + isImageOnDisc);
 			if(isImageOnDisc)
 			{
-				bm = mDiscCache.getBitmapFromFileCache(dirFile, url);
+				bm = mDiscCache.getBitmapFromFileCache(dirFile, url, getActualWith(wi));
 				if(bm != null)
 				{
 					mMemoryCache.addBitmapToCache(url, bm);
@@ -341,7 +594,15 @@ public class ImageLoader {
 				if(!checkTaskIsRunning())
 				{
 					try {
-						bm = Service.getInstance().getWallpaperBitmap(url, getActualWith(wi));
+						InputStream is = Service.getInstance().getWallpaperInputStream(url);
+						if(checkTaskIsRunning())
+						{
+							// 联网期间ImageView已经绑定了别的图片：只把数据存入缓存，不再解码
+							if(is != null)mDiscCache.saveStreamToFile(is, dirFile, url);
+							return;
+						}
+						// 原始数据边解码边写入缓存
+						bm = mDiscCache.decodeAndSaveStream(is, dirFile, url, getActualWith(wi));
 					} catch (Exception e) {
 						// TODO Auto-generated catch block
 						e.printStackTrace();
@@ -350,7 +611,6 @@ public class ImageLoader {
 				}
 				if(bm != null)
 				{
-					mDiscCache.saveBitmapToFile(bm, dirFile, url);
 					mMemoryCache.addBitmapToCache(url, bm);
 				}
 			}
@@ -373,9 +633,7 @@ public class ImageLoader {
 							if(finalBm != null)
 							{
 								//i.setImageBitmap(finalBm);
-								WallpaperDrawable d = new WallpaperDrawable(i.getResources(), finalBm);
-								//d.setBitmap(finalBm);
-								i.setImageDrawable(d);
+								bindBitmap(i, finalBm);
 							    cancelTask(i);
 							}														
 						}
@@ -394,6 +652,32 @@ public class ImageLoader {
 		
 	}
 	
+	/**
+	 * 在主线程显示Bitmap。Bitmap如果已被淘汰放入池中，拿出来不再复用
+	 */
+	private void bindBitmap(ImageView image, Bitmap bm)
+	{
+		mBitmapPool.remove(bm);
+		image.setImageDrawable(new WallpaperDrawable(image.getResources(), bm));
+		mBoundViews.put(image, Boolean.TRUE);
+	}
+	
+	/**
+	 * 在主线程调用：Bitmap是否还显示在某个ImageView上（ImageView当前的drawable）
+	 */
+	private boolean isBitmapBound(Bitmap bm)
+	{
+		for(ImageView image : mBoundViews.keySet())
+		{
+			Drawable d = image == null ? null : image.getDrawable();
+			if(d instanceof WallpaperDrawable && ((WallpaperDrawable)d).bitmap == bm)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	private int getActualWith(WallpaperInfo wi) {
 		int width = -1;
 		if(wi.isThumbnail) {
@@ -412,7 +696,11 @@ public class ImageLoader {
 	
 	private void prepareLoadTask(ImageView image, String url)
 	{
-		mCacheKey.put(image.hashCode(), url);
+		String old = mCacheKey.put(image.hashCode(), url);
+		if(old != null && !old.equals(url))
+		{
+			cancelPendingLoad(image);
+		}
 	}
 	
 	private void cancelTask(ImageView image)
@@ -455,6 +743,16 @@ public class ImageLoader {
 		{
 			mLongTimeExecutors = Executors.newFixedThreadPool(Math.max((numCPU - 1), 1));
 		}
+		
+		if(mDiskLoadExecutors == null || mDiskLoadExecutors.isShutdown())
+		{
+			mDiskLoadExecutors = newLoadExecutor(1);
+		}
+		
+		if(mNetworkLoadExecutors == null || mNetworkLoadExecutors.isShutdown())
+		{
+			mNetworkLoadExecutors = newLoadExecutor(MAX_NETWORK_LOADS);
+		}
 	}
 	
 	public void recommendJson(final int activityType)
@@ -465,26 +763,24 @@ public class ImageLoader {
 			public void run() {
 				// TODO Auto-generated method stub
 				if(DEBUG)Log.e(TAG, "recommend 1 : get json.");
-				JSONObject json = null;;
+				WallpaperCatalog.Catalog catalog = null;
 				try {
 					boolean isDateChanged = isDateChanged();
 					File listDirFile = mDiscCache.getListFile();
 					String fileName = "category_list";
-					json = mJsonFile.getJsonFromFile(
+					catalog = mCatalog.readCategories(
 							fileName, 
 							listDirFile);
-					if(isDateChanged || json == null)
-					{
-						json = Service.getInstance().getWallpaperCategoryJson();
-						//保存类别列表json
-						if(json != null)mJsonFile.saveJsonToFile(json, fileName, listDirFile);
-					}
-					if(json == null)
+					if(isDateChanged || catalog == null)
 					{
-						//从本地获得列表json
-						json = mJsonFile.getJsonFromFile(
-								fileName, 
-								listDirFile);
+						JSONObject json = Service.getInstance().getWallpaperCategoryJson();
+						List<CategoryInfo> cis = new ArrayList<CategoryInfo>();
+						WallpaperHandler.wallpaperCategoryList(cis, json);
+						//保存类别列表，获取失败时使用本地的列表
+						if(!cis.isEmpty())
+						{
+							catalog = mCatalog.writeCategories(cis, fileName, listDirFile);
+						}
 					}
 				} catch (Exception e) {
 					// TODO Auto-generated catch block
@@ -492,7 +788,7 @@ public class ImageLoader {
 				}
 				
 				if(DEBUG)Log.e(TAG, "recommend 2 : get category info list.");
-				WallpaperHandler.wallpaperCategoryList(mCategoryInfos, json);
+				WallpaperHandler.wallpaperCategoryList(mCategoryInfos, catalog);
 				
 				if(DEBUG)Log.e(TAG, "recommend 3 : get the bitmaps.");
 				final List<CategoryInfo> cis = mCategoryInfos;
@@ -501,11 +797,11 @@ public class ImageLoader {
 				{
 					CategoryInfo ci = cis.get(i);
 					try {
-						ci.bm = mDiscCache.getBitmapFromFileCache(categoryDirFile, ci.url);
+						ci.bm = mDiscCache.getBitmapFromFileCache(categoryDirFile, ci.url, ImageLoader.screenWidth / 2);
 						if(ci.bm == null)
 						{
-							ci.bm = Service.getInstance().getWallpaperBitmap(ci.url, ImageLoader.screenWidth / 2);
-							mDiscCache.saveBitmapToFile(ci.bm, categoryDirFile, ci.url);
+							InputStream is = Service.getInstance().getWallpaperInputStream(ci.url);
+							ci.bm = mDiscCache.decodeAndSaveStream(is, categoryDirFile, ci.url, ImageLoader.screenWidth / 2);
 						}
 					} catch (Exception e) {
 						// TODO Auto-generated catch block
@@ -524,6 +820,11 @@ public class ImageLoader {
 						j++;
 					}
 				}
+				//预取各类别第一页的缩略图
+				for(int k = 0; k < cis.size(); k++)
+				{
+					schedulePrefetch(cis.get(k).id + 2, 0);
+				}
 				if(DEBUG)Log.e(TAG, "recommend 4 : load the view on main thread.");
 				mHandler.post(new Runnable() {
 					
@@ -644,37 +945,23 @@ public class ImageLoader {
 							isNative = false;
 							//加载在线分类壁纸
 						}
-						if(DEBUG)Log.e(TAG, "1:get the json object form native or online(category = " + (category - 2)+").");
-						JSONObject json = null;
+						if(DEBUG)Log.e(TAG, "1:get the wallpaper list form native or online(category = " + (category - 2)+").");
+						int count;
 						if(category > 1)
 						{
-							try {
-								String fileName = "category="+(category-2)+"&page="+(previousPage+1);
-								File listDirFile = mDiscCache.getListFile();
-								json = mJsonFile.getJsonFromFile(
-										fileName, 
-										listDirFile);
-								if(json == null)
-								{
-									json = Service.getInstance().getWallPaperListJson(category-2, previousPage);
-									if(json != null 
-											&& json.getInt("state") == 1
-											&& json.getJSONArray("item").length() > 0)
-									{
-										mJsonFile.saveJsonToFile(json, fileName, listDirFile);
-									}
-								}
-							} catch (Exception e) {
-								// TODO Auto-generated catch block
-								e.printStackTrace();
-							}
+							count = loadWallpaperPage(category, previousPage, wis, wisThum);
 						}
 						else
 						{
-							json = WallpaperHandler.createWPListJson(mJsonFile, isNative);
+							count = WallpaperHandler.wallpaperList(wis, wisThum, 
+									WallpaperHandler.createWPList(mCatalog, isNative), isNative);
 						}	
-						if(DEBUG)Log.e(TAG, "2:get the wallpaper list info form json(category = " + (category - 2)+").");
-					    final boolean loadSuccess = (WallpaperHandler.wallpaperList(wis, wisThum, json, isNative) > 0);
+					    final boolean loadSuccess = (count > 0);
+					    if(loadSuccess && category > 1)
+					    {
+					    	//预取下一页
+					    	schedulePrefetch(category, previousPage + 1);
+					    }
 					    if(DEBUG)Log.e(TAG, "3:load the view on main thread(category = " + (category - 2)+").");
 			            final int c = category;
 						mHandler.post(new Runnable() {
@@ -696,6 +983,89 @@ public class ImageLoader {
 		
 	}
 	
+	/**
+	 * 一页在线壁纸列表：先读本地的列表文件，没有时联网获取并保存
+	 * @param category 同parseJSON，在线类别从2开始
+	 * @param previousPage 同parseJSON
+	 * @return 加入wis（和wisThum）的条数
+	 */
+	private int loadWallpaperPage(int category, int previousPage, 
+			ArrayList<WallpaperInfo> wis, ArrayList<WallpaperInfo> wisThum)
+	{
+		String fileName = "category="+(category-2)+"&page="+(previousPage+1);
+		File listDirFile = mDiscCache.getListFile();
+		WallpaperCatalog.Catalog catalog = mCatalog.readWallpapers(fileName, listDirFile);
+		if(catalog != null)
+		{
+			return WallpaperHandler.wallpaperList(wis, wisThum, catalog, false);
+		}
+		JSONObject json = null;
+		try {
+			json = Service.getInstance().getWallPaperListJson(category-2, previousPage);
+		} catch (Exception e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		ArrayList<WallpaperInfo> page = new ArrayList<WallpaperInfo>();
+		int count = WallpaperHandler.wallpaperList(page, wisThum, json, false);
+		if(count > 0)
+		{
+			mCatalog.writeWallpapers(page, fileName, listDirFile);
+		}
+		wis.addAll(page);
+		return count;
+	}
+	
+	/**
+	 * 加入预取：壁纸列表的一页（列表和缩略图）
+	 * @param category 同parseJSON，在线类别从2开始
+	 * @param previousPage 同parseJSON
+	 */
+	void schedulePrefetch(final int category, final int previousPage)
+	{
+		PrefetchScheduler.getInstance().schedule("wallpaper:" + category + ":" + previousPage, 
+				new PrefetchScheduler.PrefetchTask() {
+			
+			@Override
+			public void prefetch() {
+				prefetchWallpaperPage(category, previousPage);
+			}
+		});
+	}
+	
+	/**
+	 * 在预取线程中下载一页列表json和缩略图，存入与parseJSON、LoadAndDisplayImageTask相同的文件缓存
+	 */
+	private void prefetchWallpaperPage(int category, int previousPage)
+	{
+		PrefetchScheduler scheduler = PrefetchScheduler.getInstance();
+		ArrayList<WallpaperInfo> wis = new ArrayList<WallpaperInfo>();
+		ArrayList<WallpaperInfo> wisThum = new ArrayList<WallpaperInfo>();
+		loadWallpaperPage(category, previousPage, wis, wisThum);
+		for(WallpaperInfo wi : wisThum)
+		{
+			if(!scheduler.hasBudget())
+			{
+				return;
+			}
+			String dirFileName = getDirFileName(wi);
+			if(wi.url == null || mDiscCache.isImageOnDiscCache(wi.url, dirFileName))
+			{
+				continue;
+			}
+			try {
+				// 只写缓存，不需要解码
+				InputStream is = Service.getInstance().getWallpaperInputStream(wi.url);
+				if(is != null)
+				{
+					mDiscCache.saveStreamToFile(is, mDiscCache.getOrMakeFileDir(dirFileName), wi.url);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
 	Callback getCallback(int categroy)
 	{
 		if(mCallbacks != null)
@@ -723,6 +1093,11 @@ public class ImageLoader {
 	{
 		if(mShortTimeExecutors != null)mShortTimeExecutors.shutdownNow();
 		if(mLongTimeExecutors != null)mLongTimeExecutors.shutdownNow();
+		if(mDiskLoadExecutors != null)mDiskLoadExecutors.shutdownNow();
+		if(mNetworkLoadExecutors != null)mNetworkLoadExecutors.shutdownNow();
+		synchronized (mPendingTasks) {
+			mPendingTasks.clear();
+		}
 		if(mImageMap != null)
 		{
 			mImageMap.clear();
@@ -735,6 +1110,10 @@ public class ImageLoader {
 		{
 			mMemoryCache.clearCache();
 		}
+		if(mBitmapPool != null)
+		{
+			mBitmapPool.clear();
+		}
 		if(mAllInfos != null)
 		{
 			Set<Integer> keys = mAllInfos.keySet();
@@ -760,12 +1139,18 @@ public class ImageLoader {
 		}
 	}
 	
-	public void lock()
+	/**
+	 * 暂停加载（列表滑动中），只显示内存缓存中的图片
+	 */
+	public void pause()
 	{
 		mAllowTask = false;
 	}
 	
-	public void unlock()
+	/**
+	 * 恢复加载，在主线程调用
+	 */
+	public void resume()
 	{
 		mAllowTask = true;
 		doTask();
@@ -22,6 +22,7 @@ import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewTreeObserver.OnGlobalLayoutListener;
 
 import android.view.animation.Animation;
 import android.view.animation.Animation.AnimationListener;
@@ -85,7 +86,7 @@ public class PreviewActivity extends Activity implements ImageLoader.Callback, O
 		mImageLoader = ImageLoader.getInstance(getApplicationContext());
 		mImageLoader.setScreenSize(screenWidth, screenHeight);
 		mImageLoader.setCallback(this, ACTIVITY_TYPE);
-		mImageLoader.unlock();
+		mImageLoader.resume();
 		progressContainer = (FrameLayout)findViewById(R.id.progress_container);
 		pager = (PreviewPager)findViewById(R.id.preview_pager);
 		pager.setPreviewActivity(this);
@@ -153,8 +154,10 @@ public class PreviewActivity extends Activity implements ImageLoader.Callback, O
 			image.setImageResource(R.drawable.joy_wallpaper_resource_preview_bg);
 			image.setTag(wi);
 			fl.showProgressBar();
-			mImageLoader.addLoadAndDisplayTask(wi, image);
+			// 先添加再加载，进度条由ImageView的父View控制
 			((ViewPager)container).addView(fl);
+			// 这里只加载缩略图，当前页的预览图只由loadPreview加载（布局完成后或翻到时）
+			mImageLoader.addProgressiveLoadTask(wi, image, true);
 			return fl;
 		}
 
@@ -171,10 +174,21 @@ public class PreviewActivity extends Activity implements ImageLoader.Callback, O
 		// TODO Auto-generated method stub
 		pager.setAdapter(new SimplePagerAdapter(wis));
 		pager.setCurrentItem(initialPosition);
+		// 第一页不会回调onPageSelected（其他页回调时还没有创建页面），布局完成后加载预览图
+		pager.getViewTreeObserver().addOnGlobalLayoutListener(new OnGlobalLayoutListener() {
+			
+			@SuppressWarnings("deprecation")
+			@Override
+			public void onGlobalLayout() {
+				// 只在第一次布局后执行一次，此时页面已经创建
+				pager.getViewTreeObserver().removeGlobalOnLayoutListener(this);
+				loadPreview(pager.getCurrentItem());
+			}
+		});
 		WallpaperInfo currentInfo = ((SimplePagerAdapter)pager.getAdapter()).getWallpaperInfos().get(initialPosition);
 		String currentName = currentInfo.wallpaperName;
 		int size= currentInfo.size;
-		mImageLoader.unlock();
+		mImageLoader.resume();
 		imageName.setText(getTitle(currentInfo));;
 		if(mImageLoader.isApplyOrDown(currentInfo))
 		{
@@ -235,8 +249,22 @@ public class PreviewActivity extends Activity implements ImageLoader.Callback, O
 
 	@Override
 	public void onPageSelected(int arg0) {
-		// TODO Auto-generated method stub
-		
+		loadPreview(arg0);
+	}
+	
+	/**
+	 * 加载页面的预览图，页面还没有创建时不加载
+	 */
+	private void loadPreview(int position)
+	{
+		SimplePagerAdapter adapter = (SimplePagerAdapter)pager.getAdapter();
+		if(adapter == null || position < 0 || position >= adapter.getCount())return;
+		WallpaperInfo wi = adapter.getWallpaperInfos().get(position);
+		View image = pager.findViewWithTag(wi);
+		if(image instanceof ImageView)
+		{
+			mImageLoader.addProgressiveLoadTask(wi, (ImageView)image, false);
+		}
 	}
 
 
@@ -469,7 +497,7 @@ public class PreviewActivity extends Activity implements ImageLoader.Callback, O
 	protected void onResume() {
 		// TODO Auto-generated method stub
 		super.onResume();
-		if(mImageLoader != null)mImageLoader.unlock();
+		if(mImageLoader != null)mImageLoader.resume();
 		if(pager != null && pager.getAdapter() instanceof SimplePagerAdapter)
 		{
 			((SimplePagerAdapter)pager.getAdapter()).notifyDataSetChanged();
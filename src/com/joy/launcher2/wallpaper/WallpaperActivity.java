@@ -119,7 +119,7 @@ public class WallpaperActivity extends Activity implements ImageLoader.Callback,
 		mImageLoader = ImageLoader.getInstance(getApplicationContext());
 		mImageLoader.setScreenSize(screenWidth, screenHeight);
 		mImageLoader.setCallback(this, ACTIVITY_TYPE);	
-		mImageLoader.unlock();
+		mImageLoader.resume();
 		
 		
 		//初始化tab		
@@ -305,7 +305,7 @@ public class WallpaperActivity extends Activity implements ImageLoader.Callback,
 			switch(scrollState)
 			{
 			    case OnScrollListener.SCROLL_STATE_FLING:
-			    	mImageLoader.lock();
+			    	mImageLoader.pause();
 			    	break;
 			    case OnScrollListener.SCROLL_STATE_IDLE:
 			    	if(page == 1 && view.getLastVisiblePosition() == view.getCount() - 1)
@@ -314,10 +314,10 @@ public class WallpaperActivity extends Activity implements ImageLoader.Callback,
 				    		showProgressBar();
 		                	mImageLoader.parseJSON(ACTIVITY_TYPE, 2, previousPageIndex);
 		            }
-			    	mImageLoader.unlock();
+			    	mImageLoader.resume();
 			    	break;
 			    case OnScrollListener.SCROLL_STATE_TOUCH_SCROLL:
-			    	mImageLoader.lock();
+			    	mImageLoader.pause();
 			    	break;
 				default:
 					break;
@@ -588,7 +588,7 @@ public class WallpaperActivity extends Activity implements ImageLoader.Callback,
 		if(categoryType == 1)
 		{
 			mNativeGridView.setAdapter(new SimpleAdapter(getLayoutInflater(), wis, mImageLoader));
-			mImageLoader.unlock();
+			mImageLoader.resume();
 		}
 		else if(categoryType == 2)
 		{
@@ -608,7 +608,7 @@ public class WallpaperActivity extends Activity implements ImageLoader.Callback,
 			else
 			{
 				mOnlineGridView.setAdapter(new SimpleAdapter(getLayoutInflater(),wis, mImageLoader));
-				mImageLoader.unlock();
+				mImageLoader.resume();
 			}
 			
 			dismissProgressBar(true);
@@ -911,7 +911,7 @@ public class WallpaperActivity extends Activity implements ImageLoader.Callback,
 	protected void onResume() {
 		// TODO Auto-generated method stub
 		super.onResume();
-		if(mImageLoader != null)mImageLoader.unlock();
+		if(mImageLoader != null)mImageLoader.resume();
 		if(mNativeGridView != null && mNativeGridView.getAdapter() instanceof SimpleAdapter)
 		{
 			((SimpleAdapter)mNativeGridView.getAdapter()).notifyDataSetChanged();
@@ -0,0 +1,314 @@
+package com.joy.launcher2.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.joy.launcher2.download.DownLoadDBHelper;
+import com.joy.launcher2.download.DownloadInfo;
+import com.joy.launcher2.download.DownloadManager;
+import com.joy.launcher2.network.impl.Service;
+import com.joy.launcher2.network.util.ClientHttp;
+import com.joy.launcher2.network.util.HostHealth;
+import com.joy.launcher2.network.util.NetworkStats;
+
+/**
+ * 用本地模拟服务器压测网络层：并发请求各个接口，输出吞吐量、p50/p99耗时和内存分配次数。
+ * 运行：adb shell am instrument -w com.joy.launcher2.tests.network/android.test.InstrumentationTestRunner
+ */
+public class NetworkLoadTest extends InstrumentationTestCase {
+
+	private static final String TAG = "NetworkLoadTest";
+
+	private static final int THREADS = 8;
+	private static final int ITERATIONS = 200;
+	private static final int APK_SIZE = StandInServer.APK_SIZE;
+	// 测试下载用的id
+	private static final int DOWNLOAD_ID = -9005;
+
+	private StandInServer mServer;
+	private Service mService;
+	// 响应缓存、下载文件和下载数据库都放在这个临时目录，不动应用真实的缓存、SD卡和下载记录
+	private File mTempDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mServer = new StandInServer();
+		mServer.start();
+		mTempDir = new File(getInstrumentation().getTargetContext().getCacheDir(),
+				"network_load_test_" + SystemClock.elapsedRealtime());
+		File downloadDir = new File(mTempDir, "apk");
+		assertTrue(downloadDir.mkdirs());
+		ClientHttp.setHostOverride(mServer.getBaseUrl());
+		ClientHttp.setResponseCacheDir(new File(mTempDir, "http"));
+		DownloadManager.setDownloadDir(downloadDir.getPath());
+		DownLoadDBHelper.setDatabaseName(new File(mTempDir, "download.db").getPath());
+		HostHealth.getInstance().reset();
+		NetworkStats.getInstance().reset();
+		mService = Service.getInstance();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ClientHttp.setHostOverride(null);
+		ClientHttp.setResponseCacheDir(null);
+		DownloadManager.setDownloadDir(null);
+		DownLoadDBHelper.setDatabaseName(null);
+		HostHealth.getInstance().reset();
+		mServer.shutdown();
+		delete(mTempDir);
+		super.tearDown();
+	}
+
+	/**
+	 * 各json接口混合并发
+	 */
+	public void testMixedJsonLoad() throws Exception {
+		final AtomicInteger failures = new AtomicInteger();
+		runLoad("mixed_json", new Request() {
+			@Override
+			public void run(int i) {
+				boolean ok;
+				switch (i % 5) {
+				case 0:
+					ok = mService.getWallPaperListJson(i % 3, i % 4) != null;
+					break;
+				case 1:
+					ok = mService.getWallpaperCategoryJson() != null;
+					break;
+				case 2:
+					ok = mService.getApkList(i % 2, 1, 8) != null;
+					break;
+				case 3:
+					ok = mService.getShortcutListInFolder(i % 3) != null;
+					break;
+				default:
+					ok = mService.getPushList() != null;
+					break;
+				}
+				if (!ok) {
+					failures.incrementAndGet();
+				}
+			}
+		});
+		assertEquals(0, failures.get());
+		// 条件请求命中304；连接复用情况与设备速度有关，只在runLoad中输出server_connections
+		assertTrue(mServer.getNotModifiedCount() > 0);
+	}
+
+	/**
+	 * 高延迟、低带宽下的吞吐
+	 */
+	public void testSlowNetwork() throws Exception {
+		mServer.setLatency(200);
+		mServer.setBandwidth(64 * 1024);
+		final AtomicInteger failures = new AtomicInteger();
+		runLoad("slow_network", new Request() {
+			@Override
+			public void run(int i) {
+				if (mService.getApkList(i % 2, 1, 8) == null) {
+					failures.incrementAndGet();
+				}
+			}
+		});
+		assertEquals(0, failures.get());
+	}
+
+	/**
+	 * 服务器全部失败时的耗时；熔断后请求快速失败，到达服务器的请求数（与设备速度有关）在runLoad中输出
+	 */
+	public void testFailingServer() throws Exception {
+		mServer.setFailureRate(1f);
+		runLoad("failing_server", new Request() {
+			@Override
+			public void run(int i) {
+				mService.getPushList();
+			}
+		});
+	}
+
+	/**
+	 * 同一张图片的并发请求都成功；合并后到达服务器的请求数与线程启动的先后有关，只输出不判断
+	 */
+	public void testCoalescedBitmaps() throws Exception {
+		mServer.setLatency(300);
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int i = 0; i < THREADS; i++) {
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					start.await();
+					return mService.getBitmapByUrl("?op=9006&id=coalesce") != null;
+				}
+			}));
+		}
+		start.countDown();
+		for (Future<Boolean> result : results) {
+			assertTrue(result.get());
+		}
+		executor.shutdown();
+		Bundle status = new Bundle();
+		status.putInt("coalesced_threads", THREADS);
+		status.putInt("coalesced_server_requests", mServer.getRequestCount());
+		Log.i(TAG, "coalesced_server_requests=" + mServer.getRequestCount());
+		getInstrumentation().sendStatus(0, status);
+	}
+
+	/**
+	 * 断点续传：Range请求只返回剩余部分
+	 */
+	public void testRangeDownload() throws Exception {
+		String url = "?op=9005&id=1";
+		int start = 100 * 1024;
+		InputStream in = mService.getDownLoadInputStream(url, start, APK_SIZE);
+		assertNotNull(in);
+		long total = 0;
+		byte[] buffer = new byte[8192];
+		int n;
+		try {
+			while ((n = in.read(buffer)) != -1) {
+				total += n;
+			}
+		} finally {
+			close(in);
+		}
+		assertEquals(APK_SIZE - start, total);
+		assertTrue(mService.getIsBreakPoint(url));
+	}
+
+	/**
+	 * DownloadManager完整下载一个文件：分段并发下载，结果与服务器的数据一样大
+	 */
+	public void testDownloadManager() throws Exception {
+		DownloadInfo info = new DownloadInfo();
+		info.setId(DOWNLOAD_ID);
+		info.setFilename("load_test");
+		info.setUrl("?op=9005&id=" + DOWNLOAD_ID);
+		info.setFilesize(APK_SIZE / 1024);
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicBoolean succeeded = new AtomicBoolean();
+		long begin = SystemClock.elapsedRealtime();
+		DownloadManager.getInstances().createTask(null, info, new DownloadManager.CallBack() {
+			@Override
+			public void downloadSucceed() {
+				succeeded.set(true);
+				done.countDown();
+			}
+
+			@Override
+			public void downloadFailed() {
+				done.countDown();
+			}
+
+			@Override
+			public void downloadUpdate() {
+			}
+		}, true);
+		assertTrue(done.await(60, TimeUnit.SECONDS));
+		long elapsed = SystemClock.elapsedRealtime() - begin;
+		assertTrue(succeeded.get());
+		File file = new File(new File(mTempDir, "apk"), info.getLocalname());
+		assertEquals(APK_SIZE, file.length());
+		assertTrue("requests=" + mServer.getRequestCount(), mServer.getRequestCount() > 1);
+
+		Bundle results = new Bundle();
+		results.putLong("download_elapsed_ms", elapsed);
+		results.putInt("download_server_requests", mServer.getRequestCount());
+		Log.i(TAG, "download_elapsed_ms=" + elapsed);
+		getInstrumentation().sendStatus(0, results);
+	}
+
+	private interface Request {
+		void run(int i);
+	}
+
+	/**
+	 * THREADS个线程共执行ITERATIONS次请求，记录每次耗时
+	 */
+	private void runLoad(String name, final Request request) throws Exception {
+		final long[] latencies = new long[ITERATIONS];
+		final AtomicInteger next = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+
+		Debug.resetAllCounts();
+		Debug.startAllocCounting();
+		long startTime = SystemClock.elapsedRealtime();
+		for (int t = 0; t < THREADS; t++) {
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < ITERATIONS) {
+						long begin = SystemClock.elapsedRealtime();
+						request.run(i);
+						latencies[i] = SystemClock.elapsedRealtime() - begin;
+					}
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		long elapsed = SystemClock.elapsedRealtime() - startTime;
+		Debug.stopAllocCounting();
+		executor.shutdown();
+
+		long[] sorted = latencies.clone();
+		Arrays.sort(sorted);
+		Bundle results = new Bundle();
+		results.putLong(name + "_elapsed_ms", elapsed);
+		results.putFloat(name + "_requests_per_sec", ITERATIONS * 1000f / Math.max(elapsed, 1));
+		results.putLong(name + "_p50_ms", sorted[ITERATIONS / 2]);
+		results.putLong(name + "_p99_ms", sorted[Math.min(ITERATIONS - 1, ITERATIONS * 99 / 100)]);
+		results.putInt(name + "_alloc_count", Debug.getGlobalAllocCount());
+		results.putInt(name + "_alloc_bytes", Debug.getGlobalAllocSize());
+		results.putInt(name + "_server_requests", mServer.getRequestCount());
+		results.putInt(name + "_server_connections", mServer.getConnectionCount());
+		List<String> keys = new ArrayList<String>(results.keySet());
+		Collections.sort(keys);
+		for (String key : keys) {
+			Log.i(TAG, key + "=" + results.get(key));
+		}
+		NetworkStats.getInstance().dumpState();
+		getInstrumentation().sendStatus(0, results);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static void close(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+		}
+	}
+}
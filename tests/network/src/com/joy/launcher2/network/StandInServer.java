@@ -0,0 +1,429 @@
+package com.joy.launcher2.network;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+/**
+ * 本地模拟服务器：按op返回与线上接口格式一致的数据，用于在没有真实服务器的情况下压测网络层。
+ * 支持keep-alive、gzip、ETag/304、Range断点下载，可配置延迟、带宽限制和失败率（503或直接断开连接）
+ */
+public class StandInServer {
+
+	private static final String TAG = "StandInServer";
+
+	// 三段（DownloadManager每段最小512KB），下载时会分段
+	public static final int APK_SIZE = 3 * 512 * 1024;
+	private static final int LIST_SIZE = 40;
+
+	private final ServerSocket mServerSocket;
+	private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+	private final Random mRandom = new Random(0);
+	private final byte[] mImage;
+	private final byte[] mApk;
+	private final Map<String, byte[]> mJsonCache = new HashMap<String, byte[]>();
+
+	private volatile long mLatency;
+	private volatile int mBytesPerSecond;
+	private volatile float mFailureRate;
+	private volatile boolean mRunning;
+
+	private final AtomicInteger mRequests = new AtomicInteger();
+	private final AtomicInteger mNotModified = new AtomicInteger();
+	private final AtomicInteger mFailures = new AtomicInteger();
+	private final AtomicInteger mConnections = new AtomicInteger();
+
+	public StandInServer() throws IOException {
+		mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Bitmap bitmap = Bitmap.createBitmap(96, 96, Bitmap.Config.ARGB_8888);
+		bitmap.eraseColor(Color.BLUE);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+		bitmap.recycle();
+		mImage = out.toByteArray();
+		mApk = new byte[APK_SIZE];
+		mRandom.nextBytes(mApk);
+	}
+
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+	}
+
+	/**
+	 * 每个响应在发出前等待的时间
+	 */
+	public void setLatency(long millis) {
+		mLatency = millis;
+	}
+
+	/**
+	 * 响应体的发送速度，0表示不限制
+	 */
+	public void setBandwidth(int bytesPerSecond) {
+		mBytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * 请求失败的比例，失败时一半返回503，一半直接断开连接
+	 */
+	public void setFailureRate(float rate) {
+		mFailureRate = rate;
+	}
+
+	public int getRequestCount() {
+		return mRequests.get();
+	}
+
+	public int getNotModifiedCount() {
+		return mNotModified.get();
+	}
+
+	public int getFailureCount() {
+		return mFailures.get();
+	}
+
+	public int getConnectionCount() {
+		return mConnections.get();
+	}
+
+	public void start() {
+		mRunning = true;
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				while (mRunning) {
+					try {
+						final Socket socket = mServerSocket.accept();
+						mConnections.incrementAndGet();
+						mExecutor.execute(new Runnable() {
+							@Override
+							public void run() {
+								serve(socket);
+							}
+						});
+					} catch (IOException e) {
+						if (mRunning) {
+							Log.w(TAG, "---accept " + e);
+						}
+					}
+				}
+			}
+		});
+	}
+
+	public void shutdown() {
+		mRunning = false;
+		try {
+			mServerSocket.close();
+		} catch (IOException e) {
+		}
+		mExecutor.shutdownNow();
+		try {
+			mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			socket.setSoTimeout(30 * 1000);
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			// keep-alive：一个连接上处理多个请求
+			while (mRunning) {
+				String requestLine = readLine(in);
+				if (requestLine == null || requestLine.length() == 0) {
+					break;
+				}
+				Map<String, String> headers = new HashMap<String, String>();
+				String line;
+				while ((line = readLine(in)) != null && line.length() > 0) {
+					int colon = line.indexOf(':');
+					if (colon > 0) {
+						headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+					}
+				}
+				String contentLength = headers.get("content-length");
+				if (contentLength != null) {
+					skipFully(in, Long.parseLong(contentLength));
+				}
+				mRequests.incrementAndGet();
+				if (!handle(requestLine, headers, out)) {
+					break;
+				}
+				out.flush();
+			}
+		} catch (SocketException e) {
+			// 客户端断开
+		} catch (IOException e) {
+			Log.w(TAG, "---serve " + e);
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * @return 连接是否可以继续使用
+	 */
+	private boolean handle(String requestLine, Map<String, String> headers, OutputStream out) throws IOException {
+		if (mLatency > 0) {
+			try {
+				Thread.sleep(mLatency);
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		if (mFailureRate > 0) {
+			float r;
+			synchronized (mRandom) {
+				r = mRandom.nextFloat();
+			}
+			if (r < mFailureRate) {
+				mFailures.incrementAndGet();
+				if (r < mFailureRate / 2) {
+					return false;
+				}
+				writeHeaders(out, "503 Service Unavailable", "text/plain", 0, null);
+				return true;
+			}
+		}
+
+		String[] parts = requestLine.split(" ");
+		String uri = parts.length > 1 ? parts[1] : "/";
+		Map<String, String> query = parseQuery(uri);
+		int op = parseInt(query.get("op"), -1);
+
+		switch (op) {
+		case 2000:
+		case 2001:
+		case 2011:
+		case 3000:
+		case 3001:
+		case 3002:
+		case 4002:
+			return writeJson(out, op, query, headers);
+		case 9005:
+			return writeRange(out, mApk, "application/vnd.android.package-archive", headers.get("range"));
+		default:
+			writeHeaders(out, "200 OK", "image/png", mImage.length, null);
+			writeBody(out, mImage, 0, mImage.length);
+			return true;
+		}
+	}
+
+	private boolean writeJson(OutputStream out, int op, Map<String, String> query, Map<String, String> headers)
+			throws IOException {
+		String key = op + ":" + query.get("category") + ":" + query.get("id") + ":" + query.get("pi");
+		byte[] body;
+		synchronized (mJsonCache) {
+			body = mJsonCache.get(key);
+			if (body == null) {
+				body = buildJson(op, query).getBytes("UTF-8");
+				mJsonCache.put(key, body);
+			}
+		}
+		String etag = "\"" + Integer.toHexString(key.hashCode()) + "-" + body.length + "\"";
+		if (etag.equals(headers.get("if-none-match"))) {
+			mNotModified.incrementAndGet();
+			writeHeaders(out, "304 Not Modified", null, 0, "ETag: " + etag + "\r\n");
+			return true;
+		}
+		String extra = "ETag: " + etag + "\r\n";
+		String acceptEncoding = headers.get("accept-encoding");
+		if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+			gzip.write(body);
+			gzip.close();
+			body = bytes.toByteArray();
+			extra += "Content-Encoding: gzip\r\n";
+		}
+		writeHeaders(out, "200 OK", "text/json;charset=UTF-8", body.length, extra);
+		writeBody(out, body, 0, body.length);
+		return true;
+	}
+
+	private boolean writeRange(OutputStream out, byte[] data, String contentType, String range) throws IOException {
+		int start = 0;
+		int end = data.length - 1;
+		if (range != null && range.startsWith("bytes=")) {
+			String[] bounds = range.substring(6).split("-", 2);
+			start = parseInt(bounds[0], 0);
+			if (bounds.length > 1 && bounds[1].length() > 0) {
+				end = Math.min(end, parseInt(bounds[1], end));
+			}
+			if (start > end) {
+				writeHeaders(out, "416 Requested Range Not Satisfiable", contentType, 0,
+						"Content-Range: bytes */" + data.length + "\r\n");
+				return true;
+			}
+			writeHeaders(out, "206 Partial Content", contentType, end - start + 1,
+					"Accept-Ranges: bytes\r\nContent-Range: bytes " + start + "-" + end + "/" + data.length + "\r\n");
+		} else {
+			writeHeaders(out, "200 OK", contentType, data.length, "Accept-Ranges: bytes\r\n");
+		}
+		writeBody(out, data, start, end - start + 1);
+		return true;
+	}
+
+	private String buildJson(int op, Map<String, String> query) {
+		StringBuilder sb = new StringBuilder();
+		switch (op) {
+		case 2000:
+			sb.append("{\"state\":1,\"item\":[");
+			for (int i = 0; i < 8; i++) {
+				if (i > 0) sb.append(',');
+				sb.append("{\"id\":").append(i).append(",\"name\":\"category").append(i)
+				.append("\",\"url\":\"?op=9006&id=").append(i).append("\"}");
+			}
+			sb.append("]}");
+			break;
+		case 2001:
+		case 2011:
+		case 3001:
+			int pi = parseInt(query.get("pi"), 1);
+			sb.append("{\"state\":1,\"item\":[");
+			for (int i = 0; i < LIST_SIZE; i++) {
+				int id = pi * LIST_SIZE + i;
+				if (i > 0) sb.append(',');
+				sb.append("{\"id\":").append(id).append(",\"icon\":\"?op=9006&id=").append(id)
+				.append("\",\"name\":\"item").append(id).append("\",\"size\":").append(APK_SIZE)
+				.append(",\"url\":\"?op=9005&id=").append(id).append("\"}");
+			}
+			sb.append("],\"page\":{\"pi\":").append(pi).append(",\"pn\":5}}");
+			break;
+		case 4002:
+			sb.append("{\"state\":1,\"item\":[");
+			for (int i = 0; i < LIST_SIZE; i++) {
+				if (i > 0) sb.append(',');
+				sb.append("{\"id\":").append(i).append(",\"icon\":\"?op=9006&id=").append(i)
+				.append("\",\"type\":1,\"packageName\":\"com.example.app").append(i)
+				.append("\",\"name\":\"app").append(i).append("\",\"size\":").append(APK_SIZE)
+				.append(",\"url\":\"?op=9005&id=").append(i).append("\"}");
+			}
+			sb.append("]}");
+			break;
+		default:
+			sb.append("{\"state\":1,\"id\":").append(parseInt(query.get("id"), 0))
+			.append(",\"title\":\"push\",\"content\":\"stand-in\"}");
+			break;
+		}
+		return sb.toString();
+	}
+
+	private void writeHeaders(OutputStream out, String status, String contentType, int length, String extra)
+			throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("HTTP/1.1 ").append(status).append("\r\n");
+		if (contentType != null) {
+			sb.append("Content-Type: ").append(contentType).append("\r\n");
+		}
+		sb.append("Content-Length: ").append(length).append("\r\n");
+		sb.append("Connection: keep-alive\r\n");
+		if (extra != null) {
+			sb.append(extra);
+		}
+		sb.append("\r\n");
+		out.write(sb.toString().getBytes("US-ASCII"));
+	}
+
+	/**
+	 * 按带宽限制分块发送
+	 */
+	private void writeBody(OutputStream out, byte[] data, int offset, int length) throws IOException {
+		int bytesPerSecond = mBytesPerSecond;
+		if (bytesPerSecond <= 0) {
+			out.write(data, offset, length);
+			return;
+		}
+		// 每10ms发一块
+		int chunk = Math.max(1, bytesPerSecond / 100);
+		int end = offset + length;
+		while (offset < end) {
+			int n = Math.min(chunk, end - offset);
+			out.write(data, offset, n);
+			offset += n;
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted");
+			}
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				int len = sb.length();
+				if (len > 0 && sb.charAt(len - 1) == '\r') {
+					sb.setLength(len - 1);
+				}
+				return sb.toString();
+			}
+			sb.append((char) c);
+		}
+		return sb.length() > 0 ? sb.toString() : null;
+	}
+
+	private static void skipFully(InputStream in, long count) throws IOException {
+		while (count > 0) {
+			long n = in.skip(count);
+			if (n <= 0) {
+				if (in.read() == -1) {
+					return;
+				}
+				n = 1;
+			}
+			count -= n;
+		}
+	}
+
+	private static Map<String, String> parseQuery(String uri) {
+		Map<String, String> query = new HashMap<String, String>();
+		int q = uri.indexOf('?');
+		if (q < 0) {
+			return query;
+		}
+		for (String pair : uri.substring(q + 1).split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				query.put(pair.substring(0, eq), pair.substring(eq + 1));
+			}
+		}
+		return query;
+	}
+
+	private static int parseInt(String value, int defaultValue) {
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+}